@@ -2,6 +2,7 @@ package io.github.apace100.calio;
 
 import io.github.apace100.calio.data.SerializableDataTypes;
 import io.github.apace100.calio.mixin.CriteriaRegistryInvoker;
+import io.github.apace100.calio.network.DataProtocolNegotiation;
 import io.github.apace100.calio.util.TagManagerGetter;
 import net.fabricmc.api.ModInitializer;
 import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
@@ -17,18 +18,33 @@ import net.minecraft.util.registry.Registry;
 import net.minecraft.util.registry.RegistryKey;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
 public class Calio implements ModInitializer {
 
 	public static final Identifier PACKET_SHARE_ITEM = new Identifier("calio", "share_item");
+	public static final Identifier PACKET_SYNC_CHUNK = new Identifier("calio", "sync_chunk");
 
 	static TagManagerGetter tagManagerGetter;
+	private static final AtomicInteger tagGeneration = new AtomicInteger();
+	// Registry keys are interned, so they can be compared by identity
+	private static volatile Map<RegistryKey<?>, Function<TagManager, ? extends TagGroup<?>>> tagGroupGetters = new IdentityHashMap<>();
+	private static volatile TagGroupCache tagGroupCache;
+
+	static {
+		registerTagGroup(Registry.ITEM_KEY, TagManager::getItems);
+		registerTagGroup(Registry.FLUID_KEY, TagManager::getFluids);
+		registerTagGroup(Registry.BLOCK_KEY, TagManager::getBlocks);
+		registerTagGroup(Registry.ENTITY_TYPE_KEY, TagManager::getEntityTypes);
+	}
 
 	@Override
 	public void onInitialize() {
 		CriteriaRegistryInvoker.callRegister(CodeTriggerCriterion.INSTANCE);
+		DataProtocolNegotiation.register();
 		ServerPlayNetworking.registerGlobalReceiver(PACKET_SHARE_ITEM, ((minecraftServer, serverPlayerEntity, serverPlayNetworkHandler, packetByteBuf, packetSender) -> {
 			ItemStack stack = SerializableDataTypes.ITEM_STACK.receive(packetByteBuf);
 			minecraftServer.execute(() -> {
@@ -73,34 +89,72 @@ public class Calio implements ModInitializer {
 		return tagManagerGetter.get();
 	}
 
+	/**
+	 * Returns a counter which changes every time the tags are reloaded on the server or synchronized to the client.
+	 * Anything caching resolved tags can compare it to the generation it cached them in to find out whether they are stale.
+	 */
+	public static int getTagGeneration() {
+		return tagGeneration.get();
+	}
+
+	public static void onTagsReloaded() {
+		tagGeneration.incrementAndGet();
+	}
+
+	/**
+	 * Registers how the tag group of a registry is obtained from a tag manager, so that tags of the registry can be
+	 * looked up with {@link #getTag(RegistryKey, Identifier, Function)} and compared with {@link #areTagsEqual(RegistryKey, Tag, Tag)}.
+	 * Items, blocks, fluids and entity types are registered by default.
+	 */
+	public static synchronized <T> void registerTagGroup(RegistryKey<? extends Registry<T>> registryKey, Function<TagManager, TagGroup<T>> tagGroupGetter) {
+		Map<RegistryKey<?>, Function<TagManager, ? extends TagGroup<?>>> getters = new IdentityHashMap<>(tagGroupGetters);
+		getters.put(registryKey, tagGroupGetter);
+		tagGroupGetters = getters;
+		tagGroupCache = null;
+	}
+
 	@Nullable
+	@SuppressWarnings("unchecked")
 	public static <T> TagGroup<T> getTagGroup(RegistryKey<? extends Registry<T>> registryKey) {
-		if (registryKey.equals(Registry.ITEM_KEY)) {
-			return (TagGroup<T>) Calio.getTagManager().getItems();
+		TagGroupCache cache = getTagGroupCache();
+		return cache == null ? null : (TagGroup<T>) cache.tagGroups.get(registryKey);
+	}
+
+	@Nullable
+	private static TagGroupCache getTagGroupCache() {
+		TagManager tagManager = Calio.getTagManager();
+		if(tagManager == null) {
+			return null;
 		}
-		if (registryKey.equals(Registry.FLUID_KEY)) {
-			return (TagGroup<T>) Calio.getTagManager().getFluids();
+		Map<RegistryKey<?>, Function<TagManager, ? extends TagGroup<?>>> getters = tagGroupGetters;
+		TagGroupCache cache = tagGroupCache;
+		// A cache built from the getters before a tag group was registered may have been stored after the registration
+		if(cache == null || cache.tagManager != tagManager || cache.getters != getters) {
+			cache = new TagGroupCache(tagManager, getters);
+			tagGroupCache = cache;
 		}
-		if (registryKey.equals(Registry.BLOCK_KEY)) {
-			return (TagGroup<T>) Calio.getTagManager().getBlocks();
+		return cache;
+	}
+
+	@Nullable
+	private static <T> Identifier getIndexedTagId(RegistryKey<? extends Registry<T>> registryKey, Tag<T> tag) {
+		if(tag instanceof Tag.Identified) {
+			return ((Tag.Identified<T>)tag).getId();
 		}
-		if (registryKey.equals(Registry.ENTITY_TYPE_KEY)) {
-			return (TagGroup<T>) Calio.getTagManager().getEntityTypes();
+		TagGroupCache cache = getTagGroupCache();
+		if(cache == null) {
+			return null;
 		}
-		return null;
+		Map<Tag<?>, Identifier> tagIds = cache.tagIds.get(registryKey);
+		return tagIds == null ? null : tagIds.get(tag);
 	}
 
 	public static <T, E extends Exception> Identifier getTagId(RegistryKey<? extends Registry<T>> registryKey, Tag<T> tag, Supplier<E> exceptionSupplier) throws E {
-		TagGroup<T> tagGroup = Calio.getTagGroup(registryKey);
-		if (tagGroup == null) {
+		Identifier identifier = Calio.getIndexedTagId(registryKey, tag);
+		if (identifier == null) {
 			throw (E) exceptionSupplier.get();
 		} else {
-			Identifier identifier = tagGroup.getUncheckedTagId(tag);
-			if (identifier == null) {
-				throw (E) exceptionSupplier.get();
-			} else {
-				return identifier;
-			}
+			return identifier;
 		}
 	}
 
@@ -118,6 +172,23 @@ public class Calio implements ModInitializer {
 		}
 	}
 
+	/**
+	 * Finds the tag which consists of exactly the given entries, or otherwise the only tag which contains all of them.
+	 * @return The tag, or null if there is no such tag or several tags contain all of the entries.
+	 */
+	@Nullable
+	public static <T> Tag<T> getCoveringTag(RegistryKey<? extends Registry<T>> registryKey, Collection<T> entries) {
+		TagGroupCache cache = getTagGroupCache();
+		if(cache == null || entries.isEmpty()) {
+			return null;
+		}
+		TagMembership membership = cache.getMembership(registryKey);
+		if(membership == null) {
+			return null;
+		}
+		return membership.findCovering(entries);
+	}
+
 	public static <T> boolean areTagsEqual(RegistryKey<? extends Registry<T>> registryKey, Tag<T> tag1, Tag<T> tag2) {
 		if(tag1 == tag2) {
 			return true;
@@ -125,23 +196,49 @@ public class Calio implements ModInitializer {
 		if(tag1 == null || tag2 == null) {
 			return false;
 		}
-		TagManager tagManager = Calio.getTagManager();
-		try {
-			Identifier id1;
-			if(tag1 instanceof Tag.Identified) {
-				id1 = ((Tag.Identified)tag1).getId();
-			} else {
-				id1 = Calio.getTagId(registryKey, tag1, RuntimeException::new);
-			}
-			Identifier id2;
-			if(tag2 instanceof Tag.Identified) {
-				id2 = ((Tag.Identified)tag2).getId();
-			} else {
-				id2 = Calio.getTagId(registryKey, tag2, RuntimeException::new);
-			}
-			return id1.equals(id2);
-		} catch (Exception e) {
+		Identifier id1 = Calio.getIndexedTagId(registryKey, tag1);
+		if(id1 == null) {
 			return false;
 		}
+		return id1.equals(Calio.getIndexedTagId(registryKey, tag2));
+	}
+
+	// The tag groups of one tag manager, resolved once for every registered registry,
+	// together with an index from each of their tags to its identifier
+	private static class TagGroupCache {
+		private final TagManager tagManager;
+		private final Map<RegistryKey<?>, Function<TagManager, ? extends TagGroup<?>>> getters;
+		private final Map<RegistryKey<?>, TagGroup<?>> tagGroups = new IdentityHashMap<>();
+		private final Map<RegistryKey<?>, Map<Tag<?>, Identifier>> tagIds = new IdentityHashMap<>();
+		private final Map<RegistryKey<?>, TagMembership> memberships = new IdentityHashMap<>();
+
+		private TagGroupCache(TagManager tagManager, Map<RegistryKey<?>, Function<TagManager, ? extends TagGroup<?>>> getters) {
+			this.tagManager = tagManager;
+			this.getters = getters;
+			getters.forEach((registryKey, getter) -> {
+				TagGroup<?> tagGroup = getter.apply(tagManager);
+				if(tagGroup == null) {
+					return;
+				}
+				tagGroups.put(registryKey, tagGroup);
+				Map<Tag<?>, Identifier> ids = new IdentityHashMap<>();
+				tagGroup.getTags().forEach((id, tag) -> ids.put(tag, id));
+				tagIds.put(registryKey, ids);
+			});
+		}
+
+		@Nullable
+		private synchronized TagMembership getMembership(RegistryKey<?> registryKey) {
+			TagMembership membership = memberships.get(registryKey);
+			if(membership == null) {
+				TagGroup<?> tagGroup = tagGroups.get(registryKey);
+				if(tagGroup == null) {
+					return null;
+				}
+				membership = new TagMembership(tagGroup.getTags().values());
+				memberships.put(registryKey, membership);
+			}
+			return membership;
+		}
 	}
 }
@@ -2,6 +2,8 @@ package io.github.apace100.calio;
 
 import io.github.apace100.calio.data.SerializableDataTypes;
 import io.github.apace100.calio.mixin.HandledScreenFocusedSlotAccessor;
+import io.github.apace100.calio.network.ClientDataSync;
+import io.github.apace100.calio.network.DataProtocolNegotiation;
 import io.github.apace100.calio.util.ClientTagManagerGetter;
 import io.github.apace100.calio.util.ServerTagManagerGetter;
 import io.netty.buffer.Unpooled;
@@ -10,6 +12,8 @@ import net.fabricmc.api.EnvType;
 import net.fabricmc.api.Environment;
 import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientTickEvents;
 import net.fabricmc.fabric.api.client.keybinding.v1.KeyBindingHelper;
+import net.fabricmc.fabric.api.client.networking.v1.ClientLoginNetworking;
+import net.fabricmc.fabric.api.client.networking.v1.ClientPlayConnectionEvents;
 import net.fabricmc.fabric.api.client.networking.v1.ClientPlayNetworking;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.gui.screen.ingame.HandledScreen;
@@ -20,6 +24,8 @@ import net.minecraft.screen.slot.Slot;
 import net.minecraft.text.Text;
 import org.lwjgl.glfw.GLFW;
 
+import java.util.concurrent.CompletableFuture;
+
 public class CalioClient implements ClientModInitializer {
 
     boolean sharedStack = false;
@@ -28,6 +34,10 @@ public class CalioClient implements ClientModInitializer {
     @Environment(EnvType.CLIENT)
     public void onInitializeClient() {
         Calio.tagManagerGetter = new ClientTagManagerGetter();
+        ClientLoginNetworking.registerGlobalReceiver(DataProtocolNegotiation.CHANNEL, (client, handler, buf, listenerAdder) ->
+            CompletableFuture.completedFuture(DataProtocolNegotiation.createResponse(buf)));
+        ClientPlayNetworking.registerGlobalReceiver(Calio.PACKET_SYNC_CHUNK, ClientDataSync::receiveChunk);
+        ClientPlayConnectionEvents.DISCONNECT.register((handler, client) -> ClientDataSync.clear());
         ClientTickEvents.START_CLIENT_TICK.register(tick -> {
             MinecraftClient client = MinecraftClient.getInstance();
             if(client.player != null && client.currentScreen instanceof HandledScreen) {
@@ -3,59 +3,141 @@ package io.github.apace100.calio;
 import io.github.apace100.calio.mixin.WeightedListEntryAccessor;
 import net.minecraft.util.collection.WeightedList;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 
 public class FilterableWeightedList<U> extends WeightedList<U> {
 
-    private Predicate<U> filter;
+    private final Random random = new Random();
+    private final List<Predicate<U>> filters = new ArrayList<>();
+
+    // Lazily built view of the entries which pass the filters and their cumulative weights,
+    // reset whenever entries are added or the filters change
+    private List<Entry<U>> filteredEntries;
+    private int[] cumulativeWeights;
+    private int totalWeight;
 
     public int size() {
         return entries.size();
     }
 
+    @Override
+    public FilterableWeightedList<U> add(U element, int weight) {
+        super.add(element, weight);
+        invalidate();
+        return this;
+    }
+
+    @Override
+    public WeightedList<U> shuffle() {
+        WeightedList<U> shuffled = super.shuffle();
+        invalidate();
+        return shuffled;
+    }
+
+    /***
+     * Adds a filter which elements have to pass in addition to the existing ones.
+     * Filters are expected to give the same result for an element until the filters are changed again,
+     * as the filtered entries are cached.
+     */
     public void addFilter(Predicate<U> filter) {
-        if(hasFilter()) {
-            this.filter = this.filter.and(filter);
-        } else {
-            setFilter(filter);
-        }
+        this.filters.add(filter);
+        invalidate();
     }
 
     public void setFilter(Predicate<U> filter) {
-        this.filter = filter;
+        this.filters.clear();
+        if(filter != null) {
+            this.filters.add(filter);
+        }
+        invalidate();
     }
 
     public void removeFilter() {
-        this.filter = null;
+        this.filters.clear();
+        invalidate();
     }
 
     public boolean hasFilter() {
-        return this.filter != null;
+        return !this.filters.isEmpty();
     }
 
     public Stream<U> stream() {
-        if(filter != null) {
-            return this.entries.stream().map(WeightedList.Entry::getElement).filter(filter);
+        if(hasFilter()) {
+            return getFilteredEntries().stream().map(WeightedList.Entry::getElement);
         }
         return super.stream();
     }
 
     public Stream<Entry<U>> entryStream() {
-        return this.entries.stream().filter(entry -> filter == null || filter.test(entry.getElement()));
+        return getFilteredEntries().stream();
+    }
+
+    /***
+     * Returns the summed up weight of all entries which pass the filters.
+     */
+    public int getTotalWeight() {
+        getFilteredEntries();
+        return totalWeight;
     }
 
     public void addAll(FilterableWeightedList<U> other) {
         other.entryStream().forEach(entry -> add(entry.getElement(), ((WeightedListEntryAccessor)entry).getWeight()));
     }
 
+    /***
+     * Picks a random element which passes the filter, with a chance proportional to its weight.
+     * Takes O(log n) per pick, the cumulative weights are only rebuilt after the entries or the filter changed.
+     */
     public U pickRandom(Random random) {
-        return pickRandom();
+        List<Entry<U>> sampledEntries = getFilteredEntries();
+        if(sampledEntries.isEmpty()) {
+            throw new RuntimeException("Tried to pick a random element of an empty weighted list.");
+        }
+        if(totalWeight <= 0) {
+            return sampledEntries.get(random.nextInt(sampledEntries.size())).getElement();
+        }
+        return sampledEntries.get(WeightedSampler.pick(cumulativeWeights, totalWeight, random)).getElement();
     }
 
     public U pickRandom() {
-        return this.shuffle().stream().findFirst().orElseThrow(RuntimeException::new);
+        return pickRandom(random);
+    }
+
+    /***
+     * Picks {@code count} random elements which pass the filter, with replacement, and writes them into
+     * {@code results} starting at index 0. All picks share the same cumulative weights.
+     */
+    public void pickRandom(Random random, int count, U[] results) {
+        checkSampleCount(count, results);
+        for(int i = 0; i < count; i++) {
+            results[i] = pickRandom(random);
+        }
+    }
+
+    /***
+     * Picks up to {@code count} distinct entries which pass the filter, without replacement, and writes their elements
+     * into {@code results} starting at index 0. Each pick has a chance proportional to the weight of the entries which
+     * were not picked yet. Entries with a weight of 0 are only picked once all other entries were.
+     * @return The number of elements written, which is less than {@code count} if fewer entries pass the filter.
+     */
+    public int pickRandomDistinct(Random random, int count, U[] results) {
+        checkSampleCount(count, results);
+        List<Entry<U>> sampledEntries = getFilteredEntries();
+        int picks = Math.min(count, sampledEntries.size());
+        if(picks == 0) {
+            return 0;
+        }
+        int[] indices = new int[picks];
+        WeightedSampler.pickDistinct(cumulativeWeights, totalWeight, random, indices);
+        for(int i = 0; i < picks; i++) {
+            results[i] = sampledEntries.get(indices[i]).getElement();
+        }
+        return picks;
     }
 
     public FilterableWeightedList<U> copy() {
@@ -63,4 +145,46 @@ public class FilterableWeightedList<U> extends WeightedList<U> {
         copied.addAll(this);
         return copied;
     }
+
+    private static void checkSampleCount(int count, Object[] results) {
+        if(count < 0 || count > results.length) {
+            throw new IllegalArgumentException("Tried to pick " + count + " random elements into an array of length " + results.length + ".");
+        }
+    }
+
+    private void invalidate() {
+        filteredEntries = null;
+        cumulativeWeights = null;
+    }
+
+    private boolean test(U element) {
+        for(Predicate<U> filter : filters) {
+            if(!filter.test(element)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private List<Entry<U>> getFilteredEntries() {
+        if(filteredEntries != null) {
+            return filteredEntries;
+        }
+        List<Entry<U>> filtered = new ArrayList<>(entries.size());
+        for(Entry<U> entry : entries) {
+            if(test(entry.getElement())) {
+                filtered.add(entry);
+            }
+        }
+        int[] cumulative = new int[filtered.size()];
+        int total = 0;
+        for(int i = 0; i < cumulative.length; i++) {
+            total += Math.max(0, ((WeightedListEntryAccessor)filtered.get(i)).getWeight());
+            cumulative[i] = total;
+        }
+        cumulativeWeights = cumulative;
+        totalWeight = total;
+        filteredEntries = Collections.unmodifiableList(filtered);
+        return filteredEntries;
+    }
 }
@@ -0,0 +1,70 @@
+package io.github.apace100.calio;
+
+import net.minecraft.tag.Tag;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * The tags of a tag group in a fixed order, and for each entry a bit set of the tags it is in.
+ * Entries are compared by identity, like registry entries are.
+ */
+final class TagMembership {
+
+	private final List<Tag<?>> tags = new ArrayList<>();
+	private final Map<Object, BitSet> entryTags = new IdentityHashMap<>();
+
+	TagMembership(Collection<? extends Tag<?>> tagGroupTags) {
+		for(Tag<?> tag : tagGroupTags) {
+			int index = tags.size();
+			tags.add(tag);
+			for(Object entry : tag.values()) {
+				entryTags.computeIfAbsent(entry, e -> new BitSet()).set(index);
+			}
+		}
+	}
+
+	/**
+	 * Finds the tag which consists of exactly the given entries, or otherwise the only tag which contains all of them.
+	 * @return The tag, or null if there is no such tag or several tags contain all of the entries.
+	 */
+	@Nullable
+	@SuppressWarnings("unchecked")
+	<T> Tag<T> findCovering(Collection<T> entries) {
+		if(entries.isEmpty()) {
+			return null;
+		}
+		BitSet candidates = null;
+		for(T entry : entries) {
+			BitSet tagsOfEntry = entryTags.get(entry);
+			if(tagsOfEntry == null) {
+				return null;
+			}
+			if(candidates == null) {
+				candidates = (BitSet)tagsOfEntry.clone();
+			} else {
+				candidates.and(tagsOfEntry);
+			}
+			if(candidates.isEmpty()) {
+				return null;
+			}
+		}
+		if(candidates.cardinality() == 1) {
+			return (Tag<T>)tags.get(candidates.nextSetBit(0));
+		}
+		// Several tags contain all entries, so only a tag with no other entries describes them unambiguously
+		Set<T> distinctEntries = Collections.newSetFromMap(new IdentityHashMap<>());
+		distinctEntries.addAll(entries);
+		Tag<T> exactTag = null;
+		for(int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+			Tag<T> tag = (Tag<T>)tags.get(i);
+			if(tag.values().size() == distinctEntries.size()) {
+				if(exactTag != null) {
+					return null;
+				}
+				exactTag = tag;
+			}
+		}
+		return exactTag;
+	}
+}
@@ -0,0 +1,88 @@
+package io.github.apace100.calio;
+
+import java.util.Random;
+
+/***
+ * Weighted random sampling over the cumulative weights of a list of entries, used by {@link FilterableWeightedList}.
+ * Entries are referred to by their index, {@code cumulativeWeights[i]} is the summed up weight of entries 0 to i.
+ */
+final class WeightedSampler {
+
+    private WeightedSampler() {
+
+    }
+
+    /***
+     * Picks the index of an entry with a chance proportional to its weight in O(log n).
+     * @param totalWeight The summed up weight of all entries, which has to be positive.
+     */
+    static int pick(int[] cumulativeWeights, int totalWeight, Random random) {
+        int target = random.nextInt(totalWeight);
+        int low = 0;
+        int high = cumulativeWeights.length - 1;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(cumulativeWeights[mid] > target) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /***
+     * Picks distinct entries without replacement and writes their indices into {@code indices}, as many as it is
+     * long, which has to be at most the number of entries. Each pick has a chance proportional to the weight of the
+     * entries which were not picked yet, entries with a weight of 0 are only picked once all other entries were.
+     * Takes O(log n) per pick.
+     */
+    static void pickDistinct(int[] cumulativeWeights, int totalWeight, Random random, int[] indices) {
+        // Fenwick tree over the weights of the entries which were not picked yet
+        int size = cumulativeWeights.length;
+        int[] tree = new int[size + 1];
+        for(int i = 0; i < size; i++) {
+            int index = i + 1;
+            tree[index] += weight(cumulativeWeights, i);
+            int parent = index + (index & -index);
+            if(parent <= size) {
+                tree[parent] += tree[index];
+            }
+        }
+        boolean[] picked = new boolean[size];
+        int remainingWeight = totalWeight;
+        int highestBit = Integer.highestOneBit(size);
+        for(int i = 0; i < indices.length; i++) {
+            int chosen;
+            if(remainingWeight > 0) {
+                int target = random.nextInt(remainingWeight);
+                int position = 0;
+                for(int step = highestBit; step > 0; step >>= 1) {
+                    int next = position + step;
+                    if(next <= size && tree[next] <= target) {
+                        position = next;
+                        target -= tree[next];
+                    }
+                }
+                chosen = position;
+                int weight = weight(cumulativeWeights, chosen);
+                for(int index = chosen + 1; index <= size; index += index & -index) {
+                    tree[index] -= weight;
+                }
+                remainingWeight -= weight;
+            } else {
+                int skip = random.nextInt(size - i);
+                chosen = 0;
+                while(picked[chosen] || skip-- > 0) {
+                    chosen++;
+                }
+            }
+            picked[chosen] = true;
+            indices[i] = chosen;
+        }
+    }
+
+    private static int weight(int[] cumulativeWeights, int index) {
+        return cumulativeWeights[index] - (index == 0 ? 0 : cumulativeWeights[index - 1]);
+    }
+}
@@ -0,0 +1,273 @@
+package io.github.apace100.calio.data;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.netty.buffer.Unpooled;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.text.*;
+import net.minecraft.util.Formatting;
+
+/***
+ * A binary encoding of texts for the compact protocol. Literal and translatable texts with simple styles are written
+ * as their content, style bits and siblings. Anything else, like texts with click or hover events, is written as JSON.
+ * Texts received or read as JSON strings are cached, so identical strings are only parsed once.
+ */
+final class CompactText {
+
+    private static final byte JSON = 0;
+    private static final byte BINARY = 1;
+
+    private static final byte LITERAL = 0;
+    private static final byte TRANSLATABLE = 1;
+
+    private static final byte ARG_TEXT = 0;
+    private static final byte ARG_STRING = 1;
+
+    // Every formatting is either unset, which inherits it from the parent, or explicitly enabled or disabled
+    private static final int BOLD = 1;
+    private static final int NOT_BOLD = 1 << 1;
+    private static final int ITALIC = 1 << 2;
+    private static final int NOT_ITALIC = 1 << 3;
+    private static final int UNDERLINED = 1 << 4;
+    private static final int NOT_UNDERLINED = 1 << 5;
+    private static final int STRIKETHROUGH = 1 << 6;
+    private static final int NOT_STRIKETHROUGH = 1 << 7;
+    private static final int OBFUSCATED = 1 << 8;
+    private static final int NOT_OBFUSCATED = 1 << 9;
+    private static final int COLOR = 1 << 10;
+    private static final int INSERTION = 1 << 11;
+
+    // Style#equals and the is methods can't tell an unset formatting from a disabled one, but only unset ones
+    // are enabled by a parent which enables every formatting
+    private static final Style ALL_FORMATTINGS = Style.EMPTY.withFormatting(
+        Formatting.BOLD, Formatting.ITALIC, Formatting.UNDERLINE, Formatting.STRIKETHROUGH, Formatting.OBFUSCATED);
+
+    // Styles with every combination of disabled underline, strikethrough and obfuscation, which can only be created
+    // by deserializing them, indexed by the NOT_ flags shifted down to the lowest bits
+    private static final Style[] DISABLED_FORMATTINGS = new Style[8];
+
+    private static final Cache<String, Text> PARSED_JSON = CacheBuilder.newBuilder().maximumSize(1024).build();
+
+    private CompactText() {
+
+    }
+
+    static void write(PacketByteBuf buffer, Text text) {
+        PacketByteBuf encoded = new PacketByteBuf(Unpooled.buffer());
+        if(writeComponent(encoded, text)) {
+            buffer.writeByte(BINARY);
+            buffer.writeBytes(encoded);
+        } else {
+            buffer.writeByte(JSON);
+            buffer.writeString(Text.Serializer.toJson(text));
+        }
+    }
+
+    static Text read(PacketByteBuf buffer) {
+        byte format = buffer.readByte();
+        if(format == JSON) {
+            return fromJson(buffer.readString(32767));
+        }
+        return readComponent(buffer);
+    }
+
+    /***
+     * Parses a text from a JSON string. The returned text is a deep copy of the cached one, so it and its siblings
+     * and arguments can be modified.
+     */
+    static Text fromJson(String json) {
+        Text text = PARSED_JSON.getIfPresent(json);
+        if(text == null) {
+            text = Text.Serializer.fromJson(json);
+            if(text == null) {
+                return null;
+            }
+            PARSED_JSON.put(json, text);
+        }
+        return deepCopy(text);
+    }
+
+    private static MutableText deepCopy(Text text) {
+        MutableText copy;
+        if(text instanceof TranslatableText) {
+            TranslatableText translatable = (TranslatableText)text;
+            Object[] args = translatable.getArgs().clone();
+            for(int i = 0; i < args.length; i++) {
+                if(args[i] instanceof Text) {
+                    args[i] = deepCopy((Text)args[i]);
+                }
+            }
+            copy = new TranslatableText(translatable.getKey(), args);
+        } else {
+            copy = text.copy();
+        }
+        copy.setStyle(text.getStyle());
+        for(Text sibling : text.getSiblings()) {
+            copy.append(deepCopy(sibling));
+        }
+        return copy;
+    }
+
+    // Returns false if the text can't be represented in the binary encoding, leaving the buffer in an unusable state.
+    private static boolean writeComponent(PacketByteBuf buffer, Text text) {
+        if(text.getClass() == LiteralText.class) {
+            buffer.writeByte(LITERAL);
+            buffer.writeString(((LiteralText)text).getRawString());
+        } else if(text.getClass() == TranslatableText.class) {
+            TranslatableText translatable = (TranslatableText)text;
+            buffer.writeByte(TRANSLATABLE);
+            buffer.writeString(translatable.getKey());
+            Object[] args = translatable.getArgs();
+            buffer.writeVarInt(args.length);
+            for(Object arg : args) {
+                if(arg instanceof Text) {
+                    buffer.writeByte(ARG_TEXT);
+                    if(!writeComponent(buffer, (Text)arg)) {
+                        return false;
+                    }
+                } else if(arg instanceof String) {
+                    buffer.writeByte(ARG_STRING);
+                    buffer.writeString((String)arg);
+                } else {
+                    return false;
+                }
+            }
+        } else {
+            return false;
+        }
+        if(!writeStyle(buffer, text.getStyle())) {
+            return false;
+        }
+        buffer.writeVarInt(text.getSiblings().size());
+        for(Text sibling : text.getSiblings()) {
+            if(!writeComponent(buffer, sibling)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Text readComponent(PacketByteBuf buffer) {
+        byte type = buffer.readByte();
+        MutableText text;
+        if(type == LITERAL) {
+            text = new LiteralText(buffer.readString(32767));
+        } else if(type == TRANSLATABLE) {
+            String key = buffer.readString(32767);
+            Object[] args = new Object[buffer.readVarInt()];
+            for(int i = 0; i < args.length; i++) {
+                args[i] = buffer.readByte() == ARG_TEXT ? readComponent(buffer) : buffer.readString(32767);
+            }
+            text = new TranslatableText(key, args);
+        } else {
+            throw new IllegalArgumentException("Unknown text component type: " + type);
+        }
+        text.setStyle(readStyle(buffer, buffer.readVarInt()));
+        int siblingCount = buffer.readVarInt();
+        for(int i = 0; i < siblingCount; i++) {
+            text.append(readComponent(buffer));
+        }
+        return text;
+    }
+
+    // Only writes the style if it is reconstructed exactly when it is read, which rules out events and fonts.
+    private static boolean writeStyle(PacketByteBuf buffer, Style style) {
+        Style inherited = style.withParent(ALL_FORMATTINGS);
+        int flags = formattingFlags(style.isBold(), inherited.isBold(), BOLD, NOT_BOLD)
+            | formattingFlags(style.isItalic(), inherited.isItalic(), ITALIC, NOT_ITALIC)
+            | formattingFlags(style.isUnderlined(), inherited.isUnderlined(), UNDERLINED, NOT_UNDERLINED)
+            | formattingFlags(style.isStrikethrough(), inherited.isStrikethrough(), STRIKETHROUGH, NOT_STRIKETHROUGH)
+            | formattingFlags(style.isObfuscated(), inherited.isObfuscated(), OBFUSCATED, NOT_OBFUSCATED);
+        TextColor color = style.getColor();
+        if(color != null) {
+            flags |= COLOR;
+        }
+        String insertion = style.getInsertion();
+        if(insertion != null) {
+            flags |= INSERTION;
+        }
+        if(!createStyle(flags, color, insertion).equals(style)) {
+            return false;
+        }
+        buffer.writeVarInt(flags);
+        if(color != null) {
+            buffer.writeString(color.getName());
+        }
+        if(insertion != null) {
+            buffer.writeString(insertion);
+        }
+        return true;
+    }
+
+    private static int formattingFlags(boolean enabled, boolean enabledByParent, int enabledFlag, int disabledFlag) {
+        if(enabled) {
+            return enabledFlag;
+        }
+        return enabledByParent ? 0 : disabledFlag;
+    }
+
+    private static Style readStyle(PacketByteBuf buffer, int flags) {
+        TextColor color = null;
+        if((flags & COLOR) != 0) {
+            String name = buffer.readString(32767);
+            color = TextColor.parse(name);
+            if(color == null) {
+                throw new IllegalArgumentException("Unknown text color: " + name);
+            }
+        }
+        String insertion = (flags & INSERTION) != 0 ? buffer.readString(32767) : null;
+        return createStyle(flags, color, insertion);
+    }
+
+    private static Style createStyle(int flags, TextColor color, String insertion) {
+        Style style = getDisabledFormattings(flags);
+        if((flags & (BOLD | NOT_BOLD)) != 0) {
+            style = style.withBold((flags & BOLD) != 0);
+        }
+        if((flags & (ITALIC | NOT_ITALIC)) != 0) {
+            style = style.withItalic((flags & ITALIC) != 0);
+        }
+        if((flags & UNDERLINED) != 0) {
+            style = style.withFormatting(Formatting.UNDERLINE);
+        }
+        if((flags & STRIKETHROUGH) != 0) {
+            style = style.withFormatting(Formatting.STRIKETHROUGH);
+        }
+        if((flags & OBFUSCATED) != 0) {
+            style = style.withFormatting(Formatting.OBFUSCATED);
+        }
+        if(color != null) {
+            style = style.withColor(color);
+        }
+        if(insertion != null) {
+            style = style.withInsertion(insertion);
+        }
+        return style;
+    }
+
+    // Style has no methods to disable underline, strikethrough or obfuscation in this version
+    private static Style getDisabledFormattings(int flags) {
+        int index = ((flags & NOT_UNDERLINED) != 0 ? 1 : 0)
+            | ((flags & NOT_STRIKETHROUGH) != 0 ? 2 : 0)
+            | ((flags & NOT_OBFUSCATED) != 0 ? 4 : 0);
+        if(index == 0) {
+            return Style.EMPTY;
+        }
+        Style style = DISABLED_FORMATTINGS[index];
+        if(style == null) {
+            StringBuilder json = new StringBuilder("{\"text\":\"\"");
+            if((index & 1) != 0) {
+                json.append(",\"underlined\":false");
+            }
+            if((index & 2) != 0) {
+                json.append(",\"strikethrough\":false");
+            }
+            if((index & 4) != 0) {
+                json.append(",\"obfuscated\":false");
+            }
+            style = Text.Serializer.fromJson(json.append('}').toString()).getStyle();
+            DISABLED_FORMATTINGS[index] = style;
+        }
+        return style;
+    }
+}
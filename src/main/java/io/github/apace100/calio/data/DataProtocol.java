@@ -0,0 +1,96 @@
+package io.github.apace100.calio.data;
+
+import io.netty.buffer.ByteBuf;
+import net.minecraft.network.PacketByteBuf;
+
+/***
+ * The wire format used by data types to send and receive their values. Both sides of a connection need to use the
+ * same protocol, so it is negotiated per connection when a player logs in and carried by the buffers values are
+ * written to, see {@link #wrap(ByteBuf)}. Buffers which were not wrapped use the legacy protocol.
+ */
+public final class DataProtocol {
+
+    private static final int COMPACT_FLAG = 1;
+    private static final int RAW_REGISTRY_IDS_FLAG = 1 << 1;
+
+    /***
+     * The format used by previous versions: lengths as ints, text and NBT as strings, registry entries as identifiers.
+     */
+    public static final DataProtocol LEGACY = new DataProtocol(0);
+
+    /***
+     * Lengths, weights and enum ordinals are written as var ints, enum sets as a bit mask, NBT in binary and texts in
+     * a binary encoding where possible.
+     */
+    public static final DataProtocol COMPACT = new DataProtocol(COMPACT_FLAG);
+
+    /***
+     * The compact protocol, which additionally sends raw registry ids instead of identifiers. Only negotiated when
+     * both sides have the same registry contents.
+     */
+    public static final DataProtocol COMPACT_RAW_IDS = new DataProtocol(COMPACT_FLAG | RAW_REGISTRY_IDS_FLAG);
+
+    private final int flags;
+
+    private DataProtocol(int flags) {
+        this.flags = flags;
+    }
+
+    public boolean isCompact() {
+        return (flags & COMPACT_FLAG) != 0;
+    }
+
+    public boolean isRawRegistryIds() {
+        return (flags & RAW_REGISTRY_IDS_FLAG) != 0;
+    }
+
+    /***
+     * Whether a peer which negotiated the given protocol can read values written with this one.
+     */
+    public boolean isSupportedBy(DataProtocol negotiated) {
+        return (flags & ~negotiated.flags) == 0;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public static DataProtocol fromFlags(int flags) {
+        if((flags & RAW_REGISTRY_IDS_FLAG) != 0) {
+            if((flags & COMPACT_FLAG) == 0) {
+                throw new IllegalArgumentException("Raw registry ids are only supported by the compact data protocol.");
+            }
+            return COMPACT_RAW_IDS;
+        }
+        return (flags & COMPACT_FLAG) != 0 ? COMPACT : LEGACY;
+    }
+
+    /***
+     * Returns a buffer writing to and reading from the given one, which makes data types use this protocol.
+     */
+    public PacketByteBuf wrap(ByteBuf buffer) {
+        return new Buffer(buffer, this);
+    }
+
+    /***
+     * Returns the protocol of a buffer returned by {@link #wrap(ByteBuf)}, or the legacy protocol for any other buffer.
+     */
+    public static DataProtocol of(PacketByteBuf buffer) {
+        return buffer instanceof Buffer ? ((Buffer)buffer).protocol : LEGACY;
+    }
+
+    @Override
+    public String toString() {
+        return isRawRegistryIds() ? "compact with raw registry ids" : isCompact() ? "compact" : "legacy";
+    }
+
+    private static final class Buffer extends PacketByteBuf {
+
+        private final DataProtocol protocol;
+
+        private Buffer(ByteBuf parent, DataProtocol protocol) {
+            super(parent);
+            this.protocol = protocol;
+        }
+    }
+}
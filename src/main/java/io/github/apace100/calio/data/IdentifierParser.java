@@ -0,0 +1,132 @@
+package io.github.apace100.calio.data;
+
+import net.minecraft.util.Identifier;
+import net.minecraft.util.InvalidIdentifierException;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/***
+ * Parses identifiers read from data, replacing a `*` in the namespace or path with the namespace or path of the
+ * data currently being read. Parsed identifiers are cached, so the same string always results in the same instance.
+ */
+final class IdentifierParser {
+
+    // The caches are cleared when they grow past these sizes, which keeps them bounded without tracking usage
+    private static final int MAX_CACHED_IDENTIFIERS = 32768;
+    private static final int MAX_CACHED_WILDCARD_IDENTIFIERS = 4096;
+
+    // Identifiers without a `*` don't depend on the data they are read in, so they are keyed by their string alone
+    private static final Map<String, Identifier> IDENTIFIERS = new ConcurrentHashMap<>();
+    private static final Map<WildcardKey, Identifier> WILDCARD_IDENTIFIERS = new ConcurrentHashMap<>();
+
+    private IdentifierParser() {
+
+    }
+
+    static Identifier parse(String idString, String currentNamespace, String currentPath) {
+        Identifier cached = IDENTIFIERS.get(idString);
+        if(cached != null) {
+            return cached;
+        }
+        int end = idString.length();
+        while(end > 0 && idString.charAt(end - 1) == ':') {
+            end--;
+        }
+        if(end < idString.length()) {
+            // Identifiers used to be split with String#split, which drops trailing colons, but still required a path
+            String trimmed = idString.substring(0, end);
+            if(trimmed.indexOf(':') < 0) {
+                throw new InvalidIdentifierException("Incorrect number of `:` in identifier: \"" + idString + "\".");
+            }
+            return parse(trimmed, currentNamespace, currentPath);
+        }
+        int colon = -1;
+        boolean namespaceWildcard = false;
+        boolean pathWildcard = false;
+        for(int i = 0; i < idString.length(); i++) {
+            char c = idString.charAt(i);
+            if(c == ':') {
+                if(colon >= 0) {
+                    throw new InvalidIdentifierException("Incorrect number of `:` in identifier: \"" + idString + "\".");
+                }
+                colon = i;
+            } else if(c == '*') {
+                if(colon >= 0) {
+                    pathWildcard = true;
+                } else {
+                    // Without a colon, the whole string is the path
+                    namespaceWildcard = true;
+                }
+            }
+        }
+        if(colon < 0) {
+            pathWildcard = namespaceWildcard;
+            namespaceWildcard = false;
+        }
+        if(!namespaceWildcard && !pathWildcard) {
+            return cache(IDENTIFIERS, idString, new Identifier(idString), MAX_CACHED_IDENTIFIERS);
+        }
+        if(namespaceWildcard && currentNamespace == null) {
+            throw new InvalidIdentifierException("Identifier may not contain a `*` in the namespace when read here.");
+        }
+        if(pathWildcard && currentPath == null) {
+            throw new InvalidIdentifierException("Identifier may only contain a `*` in the path inside of powers.");
+        }
+        WildcardKey key = new WildcardKey(idString, namespaceWildcard ? currentNamespace : null, pathWildcard ? currentPath : null);
+        cached = WILDCARD_IDENTIFIERS.get(key);
+        if(cached != null) {
+            return cached;
+        }
+        StringBuilder expanded = new StringBuilder(idString.length() + 32);
+        for(int i = 0; i < idString.length(); i++) {
+            char c = idString.charAt(i);
+            if(c == '*') {
+                expanded.append(colon >= 0 && i < colon ? currentNamespace : currentPath);
+            } else {
+                expanded.append(c);
+            }
+        }
+        return cache(WILDCARD_IDENTIFIERS, key, new Identifier(expanded.toString()), MAX_CACHED_WILDCARD_IDENTIFIERS);
+    }
+
+    private static <K> Identifier cache(Map<K, Identifier> cache, K key, Identifier id, int maxSize) {
+        if(cache.size() >= maxSize) {
+            cache.clear();
+        }
+        Identifier previous = cache.putIfAbsent(key, id);
+        return previous != null ? previous : id;
+    }
+
+    private static final class WildcardKey {
+        private final String idString;
+        private final String namespace;
+        private final String path;
+        private final int hash;
+
+        private WildcardKey(String idString, String namespace, String path) {
+            this.idString = idString;
+            this.namespace = namespace;
+            this.path = path;
+            this.hash = Objects.hash(idString, namespace, path);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(this == obj) {
+                return true;
+            }
+            if(!(obj instanceof WildcardKey)) {
+                return false;
+            }
+            WildcardKey other = (WildcardKey)obj;
+            return idString.equals(other.idString) && Objects.equals(namespace, other.namespace) && Objects.equals(path, other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
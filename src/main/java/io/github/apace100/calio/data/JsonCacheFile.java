@@ -0,0 +1,186 @@
+package io.github.apace100.calio.data;
+
+import com.google.gson.*;
+import com.google.gson.internal.LazilyParsedNumber;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/***
+ * Reads and writes the compact binary cache file used by {@link MultiJsonDataLoader} to skip parsing unchanged
+ * data files on startup. Every entry stores the resource pack name, file identifier and content hash next to the
+ * encoded JSON tree, so the loader can validate each entry against the file it was created from.
+ */
+final class JsonCacheFile {
+
+    private static final int MAGIC = 0x43414C43;
+    private static final int VERSION = 1;
+
+    private static final byte NULL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte NUMBER = 3;
+    private static final byte STRING = 4;
+    private static final byte ARRAY = 5;
+    private static final byte OBJECT = 6;
+
+    private JsonCacheFile() {
+
+    }
+
+    static class Entry {
+        final String packName;
+        final String fileId;
+        final byte[] hash;
+        final JsonElement element;
+
+        Entry(String packName, String fileId, byte[] hash, JsonElement element) {
+            this.packName = packName;
+            this.fileId = fileId;
+            this.hash = hash;
+            this.element = element;
+        }
+    }
+
+    /***
+     * Reads the given cache file into memory and passes every entry to the consumer.
+     * Returns false if the file does not belong to the given data type or was written by another version.
+     * The file is not memory-mapped, as a mapping would keep it locked on Windows until it is garbage collected,
+     * and the file has to be replaced when the cache is written again.
+     */
+    static boolean read(Path file, String dataType, Consumer<Entry> consumer) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        try {
+            if(buffer.getInt() != MAGIC || buffer.getInt() != VERSION || !readString(buffer).equals(dataType)) {
+                return false;
+            }
+            int count = buffer.getInt();
+            for(int i = 0; i < count; i++) {
+                String packName = readString(buffer);
+                String fileId = readString(buffer);
+                byte[] hash = new byte[buffer.get() & 0xFF];
+                buffer.get(hash);
+                consumer.accept(new Entry(packName, fileId, hash, readElement(buffer)));
+            }
+            return true;
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed cache file " + file, e);
+        }
+    }
+
+    /***
+     * Writes the cache file through a temporary file, so a crash during writing never leaves a truncated cache behind.
+     */
+    static void write(Path file, String dataType, Collection<Entry> entries) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if(parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, dataType);
+            out.writeInt(entries.size());
+            for(Entry entry : entries) {
+                writeString(out, entry.packName);
+                writeString(out, entry.fileId);
+                out.writeByte(entry.hash.length);
+                out.write(entry.hash);
+                writeElement(out, entry.element);
+            }
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    private static void writeElement(DataOutputStream out, JsonElement element) throws IOException {
+        if(element == null || element.isJsonNull()) {
+            out.writeByte(NULL);
+        } else if(element.isJsonPrimitive()) {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if(primitive.isBoolean()) {
+                out.writeByte(primitive.getAsBoolean() ? TRUE : FALSE);
+            } else if(primitive.isNumber()) {
+                out.writeByte(NUMBER);
+                writeString(out, primitive.getAsString());
+            } else {
+                out.writeByte(STRING);
+                writeString(out, primitive.getAsString());
+            }
+        } else if(element.isJsonArray()) {
+            JsonArray array = element.getAsJsonArray();
+            out.writeByte(ARRAY);
+            out.writeInt(array.size());
+            for(JsonElement child : array) {
+                writeElement(out, child);
+            }
+        } else {
+            JsonObject object = element.getAsJsonObject();
+            out.writeByte(OBJECT);
+            out.writeInt(object.entrySet().size());
+            for(Map.Entry<String, JsonElement> entry : object.entrySet()) {
+                writeString(out, entry.getKey());
+                writeElement(out, entry.getValue());
+            }
+        }
+    }
+
+    private static JsonElement readElement(ByteBuffer buffer) {
+        byte type = buffer.get();
+        switch(type) {
+            case NULL:
+                return JsonNull.INSTANCE;
+            case TRUE:
+                return new JsonPrimitive(true);
+            case FALSE:
+                return new JsonPrimitive(false);
+            case NUMBER:
+                // Gson parses numbers lazily as well, this keeps the cached tree identical to a freshly parsed one
+                return new JsonPrimitive(new LazilyParsedNumber(readString(buffer)));
+            case STRING:
+                return new JsonPrimitive(readString(buffer));
+            case ARRAY:
+                int size = buffer.getInt();
+                JsonArray array = new JsonArray();
+                for(int i = 0; i < size; i++) {
+                    array.add(readElement(buffer));
+                }
+                return array;
+            case OBJECT:
+                int count = buffer.getInt();
+                JsonObject object = new JsonObject();
+                for(int i = 0; i < count; i++) {
+                    String key = readString(buffer);
+                    object.add(key, readElement(buffer));
+                }
+                return object;
+            default:
+                throw new IllegalStateException("Unknown element type " + type);
+        }
+    }
+
+    // Not using writeUTF, as it is limited to strings of 65535 bytes
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -1,20 +1,32 @@
 package io.github.apace100.calio.data;
 
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParseException;
+import net.minecraft.resource.Resource;
 import net.minecraft.resource.ResourceManager;
 import net.minecraft.resource.SinglePreparationResourceReloadListener;
 import net.minecraft.util.Identifier;
 import net.minecraft.util.JsonHelper;
 import net.minecraft.util.profiler.Profiler;
+import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 
 /***
  * Like JsonDataLoader, but provides a list of elements with an identifier, each element being loaded by a different
@@ -24,114 +36,312 @@ import java.util.*;
 public abstract class MultiJsonDataLoader extends SinglePreparationResourceReloadListener<Map<Identifier, List<JsonElement>>> {
     private static final Logger LOGGER = LogManager.getLogger();
     private static final int FILE_SUFFIX_LENGTH = ".json".length();
+    private static final HashFunction FILE_HASH = Hashing.murmur3_128();
     private final Gson gson;
     private final String dataType;
+    private int parallelism = 1;
+    private boolean incremental = false;
+    private Map<FileKey, ParsedFile> fileCache = new ConcurrentHashMap<>();
+    private Map<Identifier, HashCode> dataHashes = new HashMap<>();
+    private Changes changes;
+    private Path cacheFile;
+    private boolean cacheFileRead = false;
 
     public MultiJsonDataLoader(Gson gson, String dataType) {
         this.gson = gson;
         this.dataType = dataType;
     }
 
+    /***
+     * Enables parsing the data files on a dedicated fork-join pool with the given amount of threads.
+     * The prepared map is identical to the one produced by the single-threaded path.
+     * A parallelism of 1 (the default) parses everything on the reload thread.
+     */
+    public MultiJsonDataLoader setParallelism(int parallelism) {
+        if(parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1, was " + parallelism);
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /***
+     * Enables keeping the parsed elements of every data file between reloads, keyed by resource pack and file.
+     * Files whose content hash did not change are not parsed again, and {@link #getChanges()} reports which
+     * identifiers were added, changed or removed by the last reload.
+     * Note that the cached elements are handed out again on later reloads, so they must not be modified.
+     */
+    public MultiJsonDataLoader setIncremental(boolean incremental) {
+        this.incremental = incremental;
+        if(!incremental) {
+            fileCache = new ConcurrentHashMap<>();
+            dataHashes = new HashMap<>();
+            changes = null;
+            cacheFile = null;
+        }
+        return this;
+    }
+
+    /***
+     * Enables incremental reloading and additionally persists the parsed data files to the given binary cache file,
+     * usually located in the world or run directory. On the first reload after startup, the cache file is read
+     * instead of parsing unchanged files again. Every cached file is validated against the hash of the file it
+     * was created from, so changed files are always parsed anew.
+     */
+    public MultiJsonDataLoader setCacheFile(Path cacheFile) {
+        setIncremental(true);
+        this.cacheFile = cacheFile;
+        this.cacheFileRead = false;
+        return this;
+    }
+
+    /***
+     * Returns which identifiers were added, changed or removed by the last preparation.
+     * Meant to be called from apply. Only available when incremental reloading is enabled, null otherwise.
+     */
+    public Changes getChanges() {
+        return changes;
+    }
+
     protected Map<Identifier, List<JsonElement>> prepare(ResourceManager resourceManager, Profiler profiler) {
         Map<Identifier, List<JsonElement>> map = Maps.newHashMap();
-        int i = this.dataType.length() + 1;
-        Iterator var5 = resourceManager.findResources(this.dataType, (stringx) -> {
+        Map<Identifier, List<HashCode>> hashes = new HashMap<>();
+        Map<FileKey, ParsedFile> nextFileCache = new ConcurrentHashMap<>();
+        if(cacheFile != null && !cacheFileRead) {
+            readCacheFile();
+        }
+        List<Identifier> resources = new ArrayList<>(resourceManager.findResources(this.dataType, (stringx) -> {
             return stringx.endsWith(".json");
-        }).iterator();
+        }));
+        List<List<ParsedFile>> parsed = null;
+        if(parallelism > 1 && resources.size() > 1) {
+            parsed = parseInParallel(resourceManager, resources, nextFileCache);
+        }
+        for(int i = 0; i < resources.size(); i++) {
+            Identifier identifier = resources.get(i);
+            List<ParsedFile> files = parsed != null ? parsed.get(i) : parseAll(resourceManager, identifier, nextFileCache);
+            if(files.isEmpty()) {
+                continue;
+            }
+            Identifier identifier2 = getDataId(identifier);
+            List<JsonElement> elementList = map.computeIfAbsent(identifier2, id -> new LinkedList<>());
+            for(ParsedFile file : files) {
+                elementList.add(file.element);
+                if(incremental) {
+                    hashes.computeIfAbsent(identifier2, id -> new ArrayList<>()).add(file.hash);
+                }
+            }
+        }
+        if(incremental) {
+            Map<Identifier, HashCode> nextDataHashes = new HashMap<>();
+            hashes.forEach((id, list) -> nextDataHashes.put(id, Hashing.combineOrdered(list)));
+            changes = new Changes(dataHashes, nextDataHashes);
+            dataHashes = nextDataHashes;
+            boolean cacheChanged = isCacheChanged(nextFileCache);
+            fileCache = nextFileCache;
+            if(cacheFile != null && cacheChanged) {
+                writeCacheFile();
+            }
+        }
+        return map;
+    }
+
+    private boolean isCacheChanged(Map<FileKey, ParsedFile> nextFileCache) {
+        if(nextFileCache.size() != fileCache.size()) {
+            return true;
+        }
+        for(Map.Entry<FileKey, ParsedFile> entry : nextFileCache.entrySet()) {
+            if(fileCache.get(entry.getKey()) != entry.getValue()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void readCacheFile() {
+        cacheFileRead = true;
+        if(!Files.isRegularFile(cacheFile)) {
+            return;
+        }
+        Map<FileKey, ParsedFile> loaded = new ConcurrentHashMap<>();
+        try {
+            boolean valid = JsonCacheFile.read(cacheFile, dataType, entry -> loaded.put(
+                new FileKey(entry.packName, new Identifier(entry.fileId)),
+                new ParsedFile(HashCode.fromBytes(entry.hash), entry.element)));
+            if(valid) {
+                loaded.putAll(fileCache);
+                fileCache = loaded;
+            } else {
+                LOGGER.info("Ignoring outdated {} cache file {}", dataType, cacheFile);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Couldn't read {} cache file {}, parsing all data files", dataType, cacheFile, e);
+        }
+    }
+
+    private void writeCacheFile() {
+        List<JsonCacheFile.Entry> entries = new ArrayList<>(fileCache.size());
+        fileCache.forEach((key, file) -> entries.add(
+            new JsonCacheFile.Entry(key.packName, key.identifier.toString(), file.hash.asBytes(), file.element)));
+        try {
+            JsonCacheFile.write(cacheFile, dataType, entries);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Couldn't write {} cache file {}, it will be parsed again on the next start", dataType, cacheFile, e);
+        }
+    }
+
+    private List<List<ParsedFile>> parseInParallel(ResourceManager resourceManager, List<Identifier> resources, Map<FileKey, ParsedFile> nextFileCache) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            // The stream is ordered, so the collected list lines up with the resource list index by index.
+            return pool.submit(() -> resources.parallelStream()
+                .map(identifier -> parseAll(resourceManager, identifier, nextFileCache))
+                .collect(Collectors.toList())).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while parsing " + dataType + " data", e);
+        } catch (ExecutionException e) {
+            LOGGER.error("Parallel parsing of {} data failed, falling back to sequential parsing", dataType, e);
+            return null;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private Identifier getDataId(Identifier identifier) {
+        String string = identifier.getPath();
+        return new Identifier(identifier.getNamespace(), string.substring(this.dataType.length() + 1, string.length() - FILE_SUFFIX_LENGTH));
+    }
+
+    private List<ParsedFile> parseAll(ResourceManager resourceManager, Identifier identifier, Map<FileKey, ParsedFile> nextFileCache) {
+        Identifier identifier2 = getDataId(identifier);
+        List<ParsedFile> fileList = new ArrayList<>();
         Set<String> resourcesHandled = new HashSet<>();
-        while(var5.hasNext()) {
-            Identifier identifier = (Identifier)var5.next();
-            String string = identifier.getPath();
-            Identifier identifier2 = new Identifier(identifier.getNamespace(), string.substring(i, string.length() - FILE_SUFFIX_LENGTH));
-            resourcesHandled.clear();
-            try {
-                resourceManager.getAllResources(identifier).forEach(resource -> {
-                    if(!resourcesHandled.contains(resource.getResourcePackName())) {
-                        resourcesHandled.add(resource.getResourcePackName());
-                        try {
-                            Throwable var10 = null;
-                            try {
-                                InputStream inputStream = resource.getInputStream();
-                                Throwable var12 = null;
-
-                                try {
-                                    Reader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
-                                    Throwable var14 = null;
-
-                                    try {
-                                        JsonElement jsonElement = (JsonElement) JsonHelper.deserialize(this.gson, (Reader)reader, (Class)JsonElement.class);
-                                        if (jsonElement != null) {
-                                            if(map.containsKey(identifier2)) {
-                                                map.get(identifier2).add(jsonElement);
-                                            } else {
-                                                List<JsonElement> elementList = new LinkedList<>();
-                                                elementList.add(jsonElement);
-                                                map.put(identifier2, elementList);
-                                            }
-                                        } else {
-                                            LOGGER.error("Couldn't load data file {} from {} as it's null or empty", identifier2, identifier);
-                                        }
-                                    } catch (Throwable var62) {
-                                        var14 = var62;
-                                        throw var62;
-                                    } finally {
-                                        if (reader != null) {
-                                            if (var14 != null) {
-                                                try {
-                                                    reader.close();
-                                                } catch (Throwable var61) {
-                                                    var14.addSuppressed(var61);
-                                                }
-                                            } else {
-                                                reader.close();
-                                            }
-                                        }
-
-                                    }
-                                } catch (Throwable var64) {
-                                    var12 = var64;
-                                    throw var64;
-                                } finally {
-                                    if (inputStream != null) {
-                                        if (var12 != null) {
-                                            try {
-                                                inputStream.close();
-                                            } catch (Throwable var60) {
-                                                var12.addSuppressed(var60);
-                                            }
-                                        } else {
-                                            inputStream.close();
-                                        }
-                                    }
-
-                                }
-                            } catch (Throwable var66) {
-                                var10 = var66;
-                                throw var66;
-                            } finally {
-                                if (resource != null) {
-                                    if (var10 != null) {
-                                        try {
-                                            resource.close();
-                                        } catch (Throwable var59) {
-                                            var10.addSuppressed(var59);
-                                        }
-                                    } else {
-                                        resource.close();
-                                    }
-                                }
-
-                            }
-                        } catch (IllegalArgumentException | IOException | JsonParseException var68) {
-                            LOGGER.error("Couldn't parse data file {} from {}", identifier2, identifier, var68);
-                        }
+        try {
+            for(Resource resource : resourceManager.getAllResources(identifier)) {
+                try(Resource res = resource) {
+                    if(!resourcesHandled.add(res.getResourcePackName())) {
+                        continue;
+                    }
+                    ParsedFile file = incremental ? parseCached(res, identifier, nextFileCache) : new ParsedFile(null, parse(res));
+                    if (file.element != null) {
+                        fileList.add(file);
+                    } else {
+                        LOGGER.error("Couldn't load data file {} from {} as it's null or empty", identifier2, identifier);
                     }
-                });
-            } catch (IOException e) {
-                LOGGER.error("Couldn't parse data file {} from {}", identifier2, identifier, e);
+                } catch (IllegalArgumentException | IOException | JsonParseException e) {
+                    LOGGER.error("Couldn't parse data file {} from {}", identifier2, identifier, e);
+                }
             }
+        } catch (IOException e) {
+            LOGGER.error("Couldn't parse data file {} from {}", identifier2, identifier, e);
         }
+        return fileList;
+    }
 
-        return map;
+    private ParsedFile parseCached(Resource resource, Identifier identifier, Map<FileKey, ParsedFile> nextFileCache) throws IOException {
+        byte[] bytes;
+        try(InputStream inputStream = resource.getInputStream()) {
+            bytes = IOUtils.toByteArray(inputStream);
+        }
+        FileKey key = new FileKey(resource.getResourcePackName(), identifier);
+        HashCode hash = FILE_HASH.hashBytes(bytes);
+        ParsedFile file = fileCache.get(key);
+        if(file == null || !file.hash.equals(hash)) {
+            try(Reader reader = new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8)) {
+                file = new ParsedFile(hash, JsonHelper.deserialize(this.gson, reader, JsonElement.class));
+            }
+        }
+        if(file.element != null) {
+            nextFileCache.put(key, file);
+        }
+        return file;
+    }
+
+    private JsonElement parse(Resource resource) throws IOException {
+        try(InputStream inputStream = resource.getInputStream();
+            Reader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            return JsonHelper.deserialize(this.gson, reader, JsonElement.class);
+        }
+    }
+
+    /***
+     * The identifiers which were added, changed or removed by a reload, compared to the one before it.
+     * On the first reload, every identifier counts as added.
+     */
+    public static class Changes {
+
+        private final Set<Identifier> added;
+        private final Set<Identifier> changed;
+        private final Set<Identifier> removed;
+
+        private Changes(Map<Identifier, HashCode> previous, Map<Identifier, HashCode> current) {
+            this.added = new HashSet<>(Sets.difference(current.keySet(), previous.keySet()));
+            this.removed = new HashSet<>(Sets.difference(previous.keySet(), current.keySet()));
+            this.changed = new HashSet<>();
+            current.forEach((id, hash) -> {
+                HashCode previousHash = previous.get(id);
+                if(previousHash != null && !previousHash.equals(hash)) {
+                    changed.add(id);
+                }
+            });
+        }
+
+        public Set<Identifier> getAdded() {
+            return Collections.unmodifiableSet(added);
+        }
+
+        public Set<Identifier> getChanged() {
+            return Collections.unmodifiableSet(changed);
+        }
+
+        public Set<Identifier> getRemoved() {
+            return Collections.unmodifiableSet(removed);
+        }
+
+        public boolean isAffected(Identifier id) {
+            return added.contains(id) || changed.contains(id) || removed.contains(id);
+        }
+
+        public boolean isEmpty() {
+            return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    private static class ParsedFile {
+        private final HashCode hash;
+        private final JsonElement element;
+
+        private ParsedFile(HashCode hash, JsonElement element) {
+            this.hash = hash;
+            this.element = element;
+        }
+    }
+
+    private static class FileKey {
+        private final String packName;
+        private final Identifier identifier;
+
+        private FileKey(String packName, Identifier identifier) {
+            this.packName = packName;
+            this.identifier = identifier;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) {
+                return true;
+            }
+            if(!(o instanceof FileKey)) {
+                return false;
+            }
+            FileKey other = (FileKey)o;
+            return packName.equals(other.packName) && identifier.equals(other.identifier);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * packName.hashCode() + identifier.hashCode();
+        }
     }
 }
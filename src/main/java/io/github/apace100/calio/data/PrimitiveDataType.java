@@ -0,0 +1,318 @@
+package io.github.apace100.calio.data;
+
+import com.google.gson.JsonElement;
+import com.google.gson.internal.LazilyParsedNumber;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import it.unimi.dsi.fastutil.booleans.BooleanArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.minecraft.network.PacketByteBuf;
+
+import java.io.IOException;
+import java.util.List;
+
+/***
+ * A data type for a primitive value, which can be sent, received and read without boxing it.
+ * {@link SerializableData} detects these types and stores their values unboxed in its instances.
+ * Internally, every value is passed around as the raw bits of a long.
+ */
+public abstract class PrimitiveDataType<T> extends SerializableDataType<T> {
+
+    private PrimitiveDataType(Class<T> dataClass) {
+        super(dataClass);
+    }
+
+    abstract long toBits(Object value);
+
+    abstract T fromBits(long bits);
+
+    abstract void sendBits(PacketByteBuf buffer, long bits);
+
+    abstract long receiveBits(PacketByteBuf buffer);
+
+    abstract long readBits(JsonElement jsonElement);
+
+    abstract long readBits(JsonReader reader) throws IOException;
+
+    // Creates a modifiable list of the first size values, backed by an array of the primitive type
+    abstract List<T> toList(long[] bits, int size);
+
+    @Override
+    public void send(PacketByteBuf buffer, Object value) {
+        sendBits(buffer, toBits(value));
+    }
+
+    @Override
+    public T receive(PacketByteBuf buffer) {
+        return fromBits(receiveBits(buffer));
+    }
+
+    @Override
+    public T read(JsonElement jsonElement) {
+        return fromBits(readBits(jsonElement));
+    }
+
+    @Override
+    public T read(JsonReader reader) throws IOException {
+        return fromBits(readBits(reader));
+    }
+
+    public static class IntType extends PrimitiveDataType<Integer> {
+
+        IntType() {
+            super(Integer.class);
+        }
+
+        public void sendInt(PacketByteBuf buffer, int value) {
+            buffer.writeInt(value);
+        }
+
+        public int receiveInt(PacketByteBuf buffer) {
+            return buffer.readInt();
+        }
+
+        public int readInt(JsonElement jsonElement) {
+            return jsonElement.getAsInt();
+        }
+
+        public int readInt(JsonReader reader) throws IOException {
+            if(reader.peek() != JsonToken.NUMBER) {
+                // Strings have to contain a whole number, just like JsonElement#getAsInt requires
+                return Integer.parseInt(reader.nextString());
+            }
+            try {
+                return reader.nextInt();
+            } catch (NumberFormatException e) {
+                // Non-integral numbers are truncated, just like JsonElement#getAsInt does
+                return new LazilyParsedNumber(reader.nextString()).intValue();
+            }
+        }
+
+        @Override
+        long toBits(Object value) {
+            return ((Number)value).intValue();
+        }
+
+        @Override
+        Integer fromBits(long bits) {
+            return (int)bits;
+        }
+
+        @Override
+        void sendBits(PacketByteBuf buffer, long bits) {
+            sendInt(buffer, (int)bits);
+        }
+
+        @Override
+        long receiveBits(PacketByteBuf buffer) {
+            return receiveInt(buffer);
+        }
+
+        @Override
+        long readBits(JsonElement jsonElement) {
+            return readInt(jsonElement);
+        }
+
+        @Override
+        long readBits(JsonReader reader) throws IOException {
+            return readInt(reader);
+        }
+
+        @Override
+        List<Integer> toList(long[] bits, int size) {
+            int[] values = new int[size];
+            for(int i = 0; i < size; i++) {
+                values[i] = (int)bits[i];
+            }
+            return IntArrayList.wrap(values);
+        }
+    }
+
+    public static class FloatType extends PrimitiveDataType<Float> {
+
+        FloatType() {
+            super(Float.class);
+        }
+
+        public void sendFloat(PacketByteBuf buffer, float value) {
+            buffer.writeFloat(value);
+        }
+
+        public float receiveFloat(PacketByteBuf buffer) {
+            return buffer.readFloat();
+        }
+
+        public float readFloat(JsonElement jsonElement) {
+            return jsonElement.getAsFloat();
+        }
+
+        public float readFloat(JsonReader reader) throws IOException {
+            return Float.parseFloat(reader.nextString());
+        }
+
+        @Override
+        long toBits(Object value) {
+            return Float.floatToRawIntBits(((Number)value).floatValue());
+        }
+
+        @Override
+        Float fromBits(long bits) {
+            return Float.intBitsToFloat((int)bits);
+        }
+
+        @Override
+        void sendBits(PacketByteBuf buffer, long bits) {
+            sendFloat(buffer, Float.intBitsToFloat((int)bits));
+        }
+
+        @Override
+        long receiveBits(PacketByteBuf buffer) {
+            return Float.floatToRawIntBits(receiveFloat(buffer));
+        }
+
+        @Override
+        long readBits(JsonElement jsonElement) {
+            return Float.floatToRawIntBits(readFloat(jsonElement));
+        }
+
+        @Override
+        long readBits(JsonReader reader) throws IOException {
+            return Float.floatToRawIntBits(readFloat(reader));
+        }
+
+        @Override
+        List<Float> toList(long[] bits, int size) {
+            float[] values = new float[size];
+            for(int i = 0; i < size; i++) {
+                values[i] = Float.intBitsToFloat((int)bits[i]);
+            }
+            return FloatArrayList.wrap(values);
+        }
+    }
+
+    public static class DoubleType extends PrimitiveDataType<Double> {
+
+        DoubleType() {
+            super(Double.class);
+        }
+
+        public void sendDouble(PacketByteBuf buffer, double value) {
+            buffer.writeDouble(value);
+        }
+
+        public double receiveDouble(PacketByteBuf buffer) {
+            return buffer.readDouble();
+        }
+
+        public double readDouble(JsonElement jsonElement) {
+            return jsonElement.getAsDouble();
+        }
+
+        public double readDouble(JsonReader reader) throws IOException {
+            return Double.parseDouble(reader.nextString());
+        }
+
+        @Override
+        long toBits(Object value) {
+            return Double.doubleToRawLongBits(((Number)value).doubleValue());
+        }
+
+        @Override
+        Double fromBits(long bits) {
+            return Double.longBitsToDouble(bits);
+        }
+
+        @Override
+        void sendBits(PacketByteBuf buffer, long bits) {
+            sendDouble(buffer, Double.longBitsToDouble(bits));
+        }
+
+        @Override
+        long receiveBits(PacketByteBuf buffer) {
+            return Double.doubleToRawLongBits(receiveDouble(buffer));
+        }
+
+        @Override
+        long readBits(JsonElement jsonElement) {
+            return Double.doubleToRawLongBits(readDouble(jsonElement));
+        }
+
+        @Override
+        long readBits(JsonReader reader) throws IOException {
+            return Double.doubleToRawLongBits(readDouble(reader));
+        }
+
+        @Override
+        List<Double> toList(long[] bits, int size) {
+            double[] values = new double[size];
+            for(int i = 0; i < size; i++) {
+                values[i] = Double.longBitsToDouble(bits[i]);
+            }
+            return DoubleArrayList.wrap(values);
+        }
+    }
+
+    public static class BooleanType extends PrimitiveDataType<Boolean> {
+
+        BooleanType() {
+            super(Boolean.class);
+        }
+
+        public void sendBoolean(PacketByteBuf buffer, boolean value) {
+            buffer.writeBoolean(value);
+        }
+
+        public boolean receiveBoolean(PacketByteBuf buffer) {
+            return buffer.readBoolean();
+        }
+
+        public boolean readBoolean(JsonElement jsonElement) {
+            return jsonElement.getAsBoolean();
+        }
+
+        public boolean readBoolean(JsonReader reader) throws IOException {
+            return reader.peek() == JsonToken.STRING ? Boolean.parseBoolean(reader.nextString()) : reader.nextBoolean();
+        }
+
+        @Override
+        long toBits(Object value) {
+            return (Boolean)value ? 1 : 0;
+        }
+
+        @Override
+        Boolean fromBits(long bits) {
+            return bits != 0;
+        }
+
+        @Override
+        void sendBits(PacketByteBuf buffer, long bits) {
+            sendBoolean(buffer, bits != 0);
+        }
+
+        @Override
+        long receiveBits(PacketByteBuf buffer) {
+            return receiveBoolean(buffer) ? 1 : 0;
+        }
+
+        @Override
+        long readBits(JsonElement jsonElement) {
+            return readBoolean(jsonElement) ? 1 : 0;
+        }
+
+        @Override
+        long readBits(JsonReader reader) throws IOException {
+            return readBoolean(reader) ? 1 : 0;
+        }
+
+        @Override
+        List<Boolean> toList(long[] bits, int size) {
+            boolean[] values = new boolean[size];
+            for(int i = 0; i < size; i++) {
+                values[i] = bits[i] != 0;
+            }
+            return BooleanArrayList.wrap(values);
+        }
+    }
+}
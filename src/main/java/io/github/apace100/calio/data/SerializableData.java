@@ -2,111 +2,300 @@ package io.github.apace100.calio.data;
 
 import com.google.gson.JsonObject;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
 import net.minecraft.entity.attribute.EntityAttributeModifier;
 import net.minecraft.network.PacketByteBuf;
 import net.minecraft.util.Identifier;
 
-import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.io.IOException;
+import java.util.*;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
 public class SerializableData {
 
     // Should be set to the current namespace of the file that is being read. Allows using * in identifiers.
+    // Only used on threads which have not entered a scope, see enterScope.
+    @Deprecated
     public static String CURRENT_NAMESPACE;
 
     // Should be set to the current path of the file that is being read. Allows using * in identifiers.
+    // Only used on threads which have not entered a scope, see enterScope.
+    @Deprecated
     public static String CURRENT_PATH;
 
+    private static final ThreadLocal<Scope> CURRENT_SCOPE = new ThreadLocal<>();
+
     private final LinkedHashMap<String, Entry<?>> dataFields = new LinkedHashMap<>();
 
+    // The slots of the current fields, built when it is first needed and again after fields were added.
+    // Instances and field handles keep the layout they were created with.
+    private volatile Layout layout;
+
+    /***
+     * Sets the namespace and path of the file that is being read on the current thread, which allows using * in
+     * identifiers, until the returned scope is closed. Unlike the static fields, this allows reading data on several
+     * threads at the same time.
+     * <pre>{@code
+     * try(SerializableData.Scope scope = SerializableData.enterScope(id.getNamespace(), id.getPath())) {
+     *     instance = data.read(jsonObject);
+     * }
+     * }</pre>
+     */
+    public static Scope enterScope(String namespace, String path) {
+        Scope scope = new Scope(namespace, path, CURRENT_SCOPE.get());
+        CURRENT_SCOPE.set(scope);
+        return scope;
+    }
+
+    public static String getCurrentNamespace() {
+        Scope scope = CURRENT_SCOPE.get();
+        return scope != null ? scope.namespace : CURRENT_NAMESPACE;
+    }
+
+    public static String getCurrentPath() {
+        Scope scope = CURRENT_SCOPE.get();
+        return scope != null ? scope.path : CURRENT_PATH;
+    }
+
     public SerializableData add(String name, SerializableDataType<?> type) {
-        dataFields.put(name, new Entry<>(type));
-        return this;
+        return addEntry(name, new Entry<>(type));
     }
 
     public <T> SerializableData add(String name, SerializableDataType<T> type, T defaultValue) {
-        dataFields.put(name, new Entry<>(type, defaultValue));
-        return this;
+        return addEntry(name, new Entry<>(type, defaultValue));
     }
 
     public <T> SerializableData addFunctionedDefault(String name, SerializableDataType<T> type, Function<Instance, T> defaultFunction) {
-        dataFields.put(name, new Entry<>(type, defaultFunction));
+        return addEntry(name, new Entry<>(type, defaultFunction));
+    }
+
+    private synchronized SerializableData addEntry(String name, Entry<?> entry) {
+        dataFields.put(name, entry);
+        layout = null;
         return this;
     }
 
+    private Layout getLayout() {
+        Layout current = layout;
+        if(current == null) {
+            synchronized(this) {
+                current = layout;
+                if(current == null) {
+                    current = new Layout(dataFields);
+                    layout = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /***
+     * Resolves the field with the given name to a handle, which can read and write the field of instances of this
+     * data without looking it up by name. Meant to be resolved once and stored, e.g. in a static field.
+     */
+    public <T> Field<T> field(String name) {
+        Slot slot = getLayout().slots.get(name);
+        if(slot == null) {
+            throw new IllegalArgumentException("Serializable data does not contain a field named \"" + name + "\".");
+        }
+        return new Field<>(slot);
+    }
+
     public void write(PacketByteBuf buffer, Instance instance) {
-        dataFields.forEach((name, entry) -> {
+        Layout current = getLayout();
+        boolean compact = DataProtocol.of(buffer).isCompact();
+        if(compact) {
+            writePresence(buffer, current, instance);
+        }
+        for(Slot slot : current.slotArray) {
+            Entry<?> entry = slot.entry;
             try {
-                boolean isPresent = instance.get(name) != null;
-                if(entry.hasDefault && entry.defaultValue == null) {
+                Slot instanceSlot = instance.resolve(slot);
+                boolean isPresent = instance.isPresent(instanceSlot);
+                if(!compact && entry.isOptional()) {
                     buffer.writeBoolean(isPresent);
                 }
                 if(isPresent) {
-                    entry.dataType.send(buffer, instance.get(name));
+                    if(entry.primitive != null) {
+                        entry.primitive.sendBits(buffer, instance.getPrimitive(instanceSlot));
+                    } else {
+                        entry.dataType.send(buffer, instance.getValue(instanceSlot));
+                    }
                 }
             } catch(DataException e) {
-                throw e.prepend(name);
+                throw e.prepend(slot.name);
             } catch(Exception e) {
-                throw new DataException(DataException.Phase.WRITING, name, e);
+                throw new DataException(DataException.Phase.WRITING, slot.name, e);
             }
-        });
+        }
     }
 
     public Instance read(PacketByteBuf buffer) {
         Instance instance = new Instance();
-        dataFields.forEach((name, entry) -> {
+        Layout current = instance.layout;
+        boolean compact = DataProtocol.of(buffer).isCompact();
+        int headerSize = (current.optionalSlots.length + 7) >> 3;
+        long presence = 0;
+        byte[] extendedPresence = null;
+        if(compact) {
+            if(headerSize <= Long.BYTES) {
+                for(int i = 0; i < headerSize; i++) {
+                    presence |= (long)buffer.readUnsignedByte() << (i * 8);
+                }
+            } else {
+                extendedPresence = new byte[headerSize];
+                buffer.readBytes(extendedPresence);
+            }
+        }
+        for(Slot slot : current.slotArray) {
+            Entry<?> entry = slot.entry;
             try {
                 boolean isPresent = true;
-                if(entry.hasDefault && entry.defaultValue == null) {
-                    isPresent = buffer.readBoolean();
+                if(entry.isOptional()) {
+                    if(!compact) {
+                        isPresent = buffer.readBoolean();
+                    } else if(extendedPresence == null) {
+                        isPresent = (presence & (1L << slot.presenceIndex)) != 0;
+                    } else {
+                        isPresent = (extendedPresence[slot.presenceIndex >> 3] & (1 << (slot.presenceIndex & 7))) != 0;
+                    }
+                }
+                if(!isPresent) {
+                    instance.setValue(slot, null);
+                } else if(entry.primitive != null) {
+                    instance.setPrimitive(slot, entry.primitive.receiveBits(buffer));
+                } else {
+                    instance.setValue(slot, entry.dataType.receive(buffer));
                 }
-                instance.set(name, isPresent ? entry.dataType.receive(buffer) : null);
             } catch (DataException e) {
-                throw e.prepend(name);
+                throw e.prepend(slot.name);
             } catch (Exception e) {
-                throw new DataException(DataException.Phase.RECEIVING, name, e);
+                throw new DataException(DataException.Phase.RECEIVING, slot.name, e);
             }
-        });
+        }
         return instance;
     }
 
+    // Packs the presence flags of all optional fields into a bit set in front of the field data.
+    private void writePresence(PacketByteBuf buffer, Layout current, Instance instance) {
+        Slot[] optionalSlots = current.optionalSlots;
+        int bits = 0;
+        for(int i = 0; i < optionalSlots.length; i++) {
+            try {
+                if(instance.isPresent(instance.resolve(optionalSlots[i]))) {
+                    bits |= 1 << (i & 7);
+                }
+            } catch(Exception e) {
+                throw new DataException(DataException.Phase.WRITING, optionalSlots[i].name, e);
+            }
+            if((i & 7) == 7 || i == optionalSlots.length - 1) {
+                buffer.writeByte(bits);
+                bits = 0;
+            }
+        }
+    }
+
     public Instance read(JsonObject jsonObject) {
         Instance instance = new Instance();
-        dataFields.forEach((name, entry) -> {
+        for(Slot slot : instance.layout.slotArray) {
+            Entry<?> entry = slot.entry;
             try {
-                if (!jsonObject.has(name)) {
+                if (!jsonObject.has(slot.name)) {
                     if (entry.hasDefault()) {
-                        instance.set(name, entry.getDefault(instance));
+                        instance.setValue(slot, entry.getDefault(instance));
                     } else {
-                        throw new JsonSyntaxException("JSON requires field: " + name);
+                        throw new JsonSyntaxException("JSON requires field: " + slot.name);
                     }
+                } else if(entry.primitive != null) {
+                    instance.setPrimitive(slot, entry.primitive.readBits(jsonObject.get(slot.name)));
                 } else {
-                    instance.set(name, entry.dataType.read(jsonObject.get(name)));
+                    instance.setValue(slot, entry.dataType.read(jsonObject.get(slot.name)));
+                }
+            } catch (DataException e) {
+                throw e.prepend(slot.name);
+            } catch (Exception e) {
+                throw new DataException(DataException.Phase.READING, slot.name, e);
+            }
+        }
+        return instance;
+    }
+
+    /***
+     * Reads an instance directly from the tokens of a JSON object, without building a JSON tree first.
+     * Fields are decoded in the order they appear in the object, unknown fields are skipped.
+     * Default values are filled in afterwards, so default functions can access every present field.
+     */
+    public Instance read(JsonReader reader) throws IOException {
+        Instance instance = new Instance();
+        reader.beginObject();
+        while(reader.hasNext()) {
+            String name = reader.nextName();
+            Slot slot = instance.layout.slots.get(name);
+            if(slot == null) {
+                reader.skipValue();
+                continue;
+            }
+            Entry<?> entry = slot.entry;
+            try {
+                if(entry.primitive != null) {
+                    instance.setPrimitive(slot, entry.primitive.readBits(reader));
+                } else {
+                    instance.setValue(slot, entry.dataType.read(reader));
                 }
             } catch (DataException e) {
                 throw e.prepend(name);
             } catch (Exception e) {
                 throw new DataException(DataException.Phase.READING, name, e);
             }
-        });
+        }
+        reader.endObject();
+        for(Slot slot : instance.layout.slotArray) {
+            if(instance.isAssigned(slot)) {
+                continue;
+            }
+            try {
+                if (slot.entry.hasDefault()) {
+                    instance.setValue(slot, slot.entry.getDefault(instance));
+                } else {
+                    throw new JsonSyntaxException("JSON requires field: " + slot.name);
+                }
+            } catch (DataException e) {
+                throw e.prepend(slot.name);
+            } catch (Exception e) {
+                throw new DataException(DataException.Phase.READING, slot.name, e);
+            }
+        }
         return instance;
     }
 
     public class Instance {
-        private HashMap<String, Object> data = new HashMap<>();
+        private static final byte UNSET = 0;
+        private static final byte SET = 1;
+        private static final byte SET_NULL = 2;
+
+        private final Layout layout;
+        private final Object[] values;
+        private final long[] primitives;
+        private final byte[] states;
+        // Values set for names which are not fields of the serializable data
+        private HashMap<String, Object> additionalData;
 
         public Instance() {
+            this.layout = getLayout();
+            this.values = new Object[layout.objectSlotCount];
+            this.primitives = new long[layout.primitiveSlotCount];
+            this.states = new byte[layout.slotArray.length];
+        }
 
+        private SerializableData getSerializableData() {
+            return SerializableData.this;
         }
 
         public boolean isPresent(String name) {
-            if(dataFields.containsKey(name)) {
-                Entry<?> entry = dataFields.get(name);
-                if(entry.hasDefault && entry.defaultValue == null) {
-                    return get(name) != null;
-                }
+            Slot slot = layout.slots.get(name);
+            if(slot != null && slot.entry.isOptional()) {
+                return get(name) != null;
             }
             return true;
         }
@@ -120,29 +309,57 @@ public class SerializableData {
         }
 
         public void set(String name, Object value) {
-            this.data.put(name, value);
+            Slot slot = layout.slots.get(name);
+            if(slot != null) {
+                setValue(slot, value);
+            } else {
+                if(additionalData == null) {
+                    additionalData = new HashMap<>();
+                }
+                additionalData.put(name, value);
+            }
         }
 
         public Object get(String name) {
-            if(!data.containsKey(name)) {
-                throw new RuntimeException("Tried to get field \"" + name + "\" from data, which did not exist.");
+            Slot slot = layout.slots.get(name);
+            if(slot == null) {
+                if(additionalData == null || !additionalData.containsKey(name)) {
+                    throw new RuntimeException("Tried to get field \"" + name + "\" from data, which did not exist.");
+                }
+                return additionalData.get(name);
             }
-            return data.get(name);
+            return getValue(slot);
         }
 
         public int getInt(String name) {
+            Slot slot = layout.slots.get(name);
+            if(slot != null && slot.entry.primitiveType == Integer.class) {
+                return (int)getPrimitive(slot);
+            }
             return (int)get(name);
         }
 
         public boolean getBoolean(String name) {
+            Slot slot = layout.slots.get(name);
+            if(slot != null && slot.entry.primitiveType == Boolean.class) {
+                return getPrimitive(slot) != 0;
+            }
             return (boolean)get(name);
         }
 
         public float getFloat(String name) {
+            Slot slot = layout.slots.get(name);
+            if(slot != null && slot.entry.primitiveType == Float.class) {
+                return Float.intBitsToFloat((int)getPrimitive(slot));
+            }
             return (float)get(name);
         }
 
         public double getDouble(String name) {
+            Slot slot = layout.slots.get(name);
+            if(slot != null && slot.entry.primitiveType == Double.class) {
+                return Double.longBitsToDouble(getPrimitive(slot));
+            }
             return (double)get(name);
         }
 
@@ -157,6 +374,131 @@ public class SerializableData {
         public EntityAttributeModifier getModifier(String name) {
             return (EntityAttributeModifier)get(name);
         }
+
+        // Finds the slot of a field in the layout of this instance, which is older if fields were added since
+        private Slot resolve(Slot slot) {
+            if(slot.layout == layout) {
+                return slot;
+            }
+            Slot own = layout.slots.get(slot.name);
+            if(own == null) {
+                throw new RuntimeException("Tried to get field \"" + slot.name + "\" from data, which did not exist.");
+            }
+            return own;
+        }
+
+        private boolean isAssigned(Slot slot) {
+            return states[slot.index] != UNSET;
+        }
+
+        private void setValue(Slot slot, Object value) {
+            if(value == null) {
+                states[slot.index] = SET_NULL;
+                if(slot.entry.primitive == null) {
+                    values[slot.slot] = null;
+                }
+                return;
+            }
+            if(slot.entry.primitive != null) {
+                // Only accept values of the field's type, as converting e.g. a double to bits of an int field would truncate it
+                primitives[slot.slot] = slot.entry.primitive.toBits(slot.entry.dataType.cast(value));
+                states[slot.index] = SET;
+            } else {
+                values[slot.slot] = value;
+                states[slot.index] = SET;
+            }
+        }
+
+        private Object getValue(Slot slot) {
+            byte state = states[slot.index];
+            if(state == UNSET) {
+                throw new RuntimeException("Tried to get field \"" + slot.name + "\" from data, which did not exist.");
+            }
+            if(state == SET_NULL) {
+                return null;
+            }
+            if(slot.entry.primitive != null) {
+                return slot.entry.primitive.fromBits(primitives[slot.slot]);
+            }
+            return values[slot.slot];
+        }
+
+        private void setPrimitive(Slot slot, long bits) {
+            states[slot.index] = SET;
+            primitives[slot.slot] = bits;
+        }
+
+        private boolean isPresent(Slot slot) {
+            byte state = states[slot.index];
+            if(state == UNSET) {
+                throw new RuntimeException("Tried to get field \"" + slot.name + "\" from data, which did not exist.");
+            }
+            return state == SET && (slot.entry.primitive != null || values[slot.slot] != null);
+        }
+
+        private long getPrimitive(Slot slot) {
+            byte state = states[slot.index];
+            if(state != SET) {
+                if(state == UNSET) {
+                    throw new RuntimeException("Tried to get field \"" + slot.name + "\" from data, which did not exist.");
+                }
+                throw new NullPointerException("Tried to get primitive value of field \"" + slot.name + "\", which was null.");
+            }
+            return primitives[slot.slot];
+        }
+    }
+
+    /***
+     * A resolved field of this serializable data. Accessing instances through a field skips the name lookup,
+     * and the primitive getters read the value without boxing it.
+     */
+    public class Field<T> {
+        private final Slot slot;
+        private final Entry<?> entry;
+
+        private Field(Slot slot) {
+            this.slot = slot;
+            this.entry = slot.entry;
+        }
+
+        public String getName() {
+            return slot.name;
+        }
+
+        public T get(Instance instance) {
+            return (T)check(instance).getValue(instance.resolve(slot));
+        }
+
+        public void set(Instance instance, T value) {
+            check(instance).setValue(instance.resolve(slot), value);
+        }
+
+        public boolean isPresent(Instance instance) {
+            return !entry.isOptional() || get(instance) != null;
+        }
+
+        public int getInt(Instance instance) {
+            return entry.primitiveType == Integer.class ? (int)check(instance).getPrimitive(instance.resolve(slot)) : (int)(Object)get(instance);
+        }
+
+        public boolean getBoolean(Instance instance) {
+            return entry.primitiveType == Boolean.class ? check(instance).getPrimitive(instance.resolve(slot)) != 0 : (boolean)(Object)get(instance);
+        }
+
+        public float getFloat(Instance instance) {
+            return entry.primitiveType == Float.class ? Float.intBitsToFloat((int)check(instance).getPrimitive(instance.resolve(slot))) : (float)(Object)get(instance);
+        }
+
+        public double getDouble(Instance instance) {
+            return entry.primitiveType == Double.class ? Double.longBitsToDouble(check(instance).getPrimitive(instance.resolve(slot))) : (double)(Object)get(instance);
+        }
+
+        private Instance check(Instance instance) {
+            if(instance.getSerializableData() != SerializableData.this) {
+                throw new IllegalArgumentException("Tried to access field \"" + slot.name + "\" of an instance of different serializable data.");
+            }
+            return instance;
+        }
     }
 
     private static class Entry<T> {
@@ -165,6 +507,8 @@ public class SerializableData {
         private final Function<Instance, T> defaultFunction;
         private final boolean hasDefault;
         private final boolean hasDefaultFunction;
+        private final PrimitiveDataType<T> primitive;
+        private final Class<?> primitiveType;
 
         public Entry(SerializableDataType<T> dataType) {
             this.dataType = dataType;
@@ -172,6 +516,8 @@ public class SerializableData {
             this.defaultFunction = null;
             this.hasDefault = false;
             this.hasDefaultFunction = false;
+            this.primitive = dataType instanceof PrimitiveDataType ? (PrimitiveDataType<T>)dataType : null;
+            this.primitiveType = primitive != null ? primitive.getDataClass() : null;
         }
 
         public Entry(SerializableDataType<T> dataType, T defaultValue) {
@@ -180,6 +526,8 @@ public class SerializableData {
             this.defaultFunction = null;
             this.hasDefault = true;
             this.hasDefaultFunction = false;
+            this.primitive = dataType instanceof PrimitiveDataType ? (PrimitiveDataType<T>)dataType : null;
+            this.primitiveType = primitive != null ? primitive.getDataClass() : null;
         }
 
         public Entry(SerializableDataType<T> dataType, Function<Instance, T> defaultFunction) {
@@ -188,12 +536,18 @@ public class SerializableData {
             this.defaultFunction = defaultFunction;
             this.hasDefault = false;
             this.hasDefaultFunction = true;
+            this.primitive = dataType instanceof PrimitiveDataType ? (PrimitiveDataType<T>)dataType : null;
+            this.primitiveType = primitive != null ? primitive.getDataClass() : null;
         }
 
         public boolean hasDefault() {
             return hasDefault || hasDefaultFunction;
         }
 
+        public boolean isOptional() {
+            return hasDefault && defaultValue == null;
+        }
+
         public T getDefault(Instance dataInstance) {
             if(hasDefaultFunction) {
                 return defaultFunction.apply(dataInstance);
@@ -204,4 +558,73 @@ public class SerializableData {
             }
         }
     }
-}
\ No newline at end of file
+
+    // Assigns every field an index for its state, a slot in the object or primitive values, and optional fields
+    // an index in the presence header of the compact protocol
+    private static final class Layout {
+        private final Map<String, Slot> slots = new HashMap<>();
+        private final Slot[] slotArray;
+        private final Slot[] optionalSlots;
+        private int objectSlotCount;
+        private int primitiveSlotCount;
+
+        private Layout(LinkedHashMap<String, Entry<?>> dataFields) {
+            List<Slot> ordered = new ArrayList<>(dataFields.size());
+            List<Slot> optionals = new ArrayList<>();
+            for(Map.Entry<String, Entry<?>> mapEntry : dataFields.entrySet()) {
+                Entry<?> entry = mapEntry.getValue();
+                int slotIndex = entry.primitive != null ? primitiveSlotCount++ : objectSlotCount++;
+                Slot slot = new Slot(this, mapEntry.getKey(), entry, ordered.size(), slotIndex, entry.isOptional() ? optionals.size() : -1);
+                ordered.add(slot);
+                if(entry.isOptional()) {
+                    optionals.add(slot);
+                }
+                slots.put(slot.name, slot);
+            }
+            this.slotArray = ordered.toArray(new Slot[0]);
+            this.optionalSlots = optionals.toArray(new Slot[0]);
+        }
+    }
+
+    private static final class Slot {
+        private final Layout layout;
+        private final String name;
+        private final Entry<?> entry;
+        private final int index;
+        private final int slot;
+        private final int presenceIndex;
+
+        private Slot(Layout layout, String name, Entry<?> entry, int index, int slot, int presenceIndex) {
+            this.layout = layout;
+            this.name = name;
+            this.entry = entry;
+            this.index = index;
+            this.slot = slot;
+            this.presenceIndex = presenceIndex;
+        }
+    }
+
+    public static final class Scope implements AutoCloseable {
+        private final String namespace;
+        private final String path;
+        private final Scope parent;
+
+        private Scope(String namespace, String path, Scope parent) {
+            this.namespace = namespace;
+            this.path = path;
+            this.parent = parent;
+        }
+
+        /***
+         * Restores the scope which was current when this one was entered.
+         */
+        @Override
+        public void close() {
+            if(parent == null) {
+                CURRENT_SCOPE.remove();
+            } else {
+                CURRENT_SCOPE.set(parent);
+            }
+        }
+    }
+}
@@ -1,7 +1,12 @@
 package io.github.apace100.calio.data;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.BiMap;
 import com.google.gson.*;
+import com.google.gson.internal.Streams;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import io.github.apace100.calio.Calio;
 import io.github.apace100.calio.ClassUtil;
 import io.github.apace100.calio.FilterableWeightedList;
@@ -9,10 +14,13 @@ import io.github.apace100.calio.mixin.WeightedListEntryAccessor;
 import io.github.apace100.calio.util.IdentifiedTag;
 import net.minecraft.network.PacketByteBuf;
 import net.minecraft.tag.Tag;
+import net.minecraft.util.Identifier;
 import net.minecraft.util.JsonHelper;
 import net.minecraft.util.registry.Registry;
 import net.minecraft.util.registry.RegistryKey;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
@@ -25,15 +33,36 @@ public class SerializableDataType<T> {
     private final BiConsumer<PacketByteBuf, T> send;
     private final Function<PacketByteBuf, T> receive;
     private final Function<JsonElement, T> read;
+    private final StreamReader<T> streamRead;
 
     public SerializableDataType(Class<T> dataClass,
                                 BiConsumer<PacketByteBuf, T> send,
                                 Function<PacketByteBuf, T> receive,
                                 Function<JsonElement, T> read) {
+        this(dataClass, send, receive, read, null);
+    }
+
+    /***
+     * @param streamRead Reads the value directly from the tokens of a JSON stream. If this is null,
+     *                   the value is parsed into a JSON tree first and passed to the read function.
+     */
+    public SerializableDataType(Class<T> dataClass,
+                                BiConsumer<PacketByteBuf, T> send,
+                                Function<PacketByteBuf, T> receive,
+                                Function<JsonElement, T> read,
+                                StreamReader<T> streamRead) {
         this.dataClass = dataClass;
         this.send = send;
         this.receive = receive;
         this.read = read;
+        this.streamRead = streamRead;
+    }
+
+    /***
+     * For subclasses which override sending, receiving and both read methods themselves.
+     */
+    protected SerializableDataType(Class<T> dataClass) {
+        this(dataClass, null, null, null, null);
     }
 
     public void send(PacketByteBuf buffer, Object value) {
@@ -48,66 +77,190 @@ public class SerializableDataType<T> {
         return read.apply(jsonElement);
     }
 
+    public T read(JsonReader reader) throws IOException {
+        if(streamRead != null) {
+            return streamRead.read(reader);
+        }
+        return read.apply(Streams.parse(reader));
+    }
+
+    public Class<T> getDataClass() {
+        return dataClass;
+    }
+
     public T cast(Object data) {
         return dataClass.cast(data);
     }
 
+    /***
+     * Returns a data type which reads and receives the same values as this one, but returns the same instance for
+     * values read from identical JSON or received from identical bytes, for as long as that instance is in use. JSON
+     * containing a `*` is only interned per file, as the wildcard is replaced with the namespace or path of the
+     * current scope, see {@link SerializableData#enterScope(String, String)}. Data types which depend on the current
+     * file in any other way must not be interned.
+     * <p>
+     * Only use this for values which are never modified after they were read, as every user of an interned value
+     * shares the same instance. Values which are expected to be distinct although they were defined identically,
+     * like attribute modifiers with a random UUID, must not be interned either.
+     */
+    public SerializableDataType<T> interned() {
+        return new InternedDataType<>(this);
+    }
+
+    static void writeCount(PacketByteBuf buf, int count) {
+        if(DataProtocol.of(buf).isCompact()) {
+            buf.writeVarInt(count);
+        } else {
+            buf.writeInt(count);
+        }
+    }
+
+    static int readCount(PacketByteBuf buf) {
+        return DataProtocol.of(buf).isCompact() ? buf.readVarInt() : buf.readInt();
+    }
+
+    /***
+     * Creates a data type for lists of the given type's values. When reading from JSON, a single value instead of an
+     * array is read as a list of that value. The returned lists can be modified, as callers have relied on that. Lists of
+     * primitive values are backed by growable primitive arrays.
+     */
+    @SuppressWarnings("unchecked")
     public static <T> SerializableDataType<List<T>> list(SerializableDataType<T> singleDataType) {
-        return new SerializableDataType<>(ClassUtil.castClass(List.class), (buf, list) -> {
-            buf.writeInt(list.size());
+        if(singleDataType instanceof PrimitiveDataType) {
+            return primitiveList((PrimitiveDataType<T>)singleDataType);
+        }
+        return new SerializableDataType<>(ClassUtil.castClass(List.class), (buf, list) -> sendList(buf, singleDataType, list), (buf) -> {
+            int count = readCount(buf);
+            // Every element takes at least one byte, unless it is empty compound data
+            List<T> list = new ArrayList<>(Math.min(count, buf.readableBytes() + 1));
+            for(int i = 0; i < count; i++) {
+                try {
+                    list.add(singleDataType.receive(buf));
+                } catch(DataException e) {
+                    throw e.prepend("[" + i + "]");
+                } catch(Exception e) {
+                    throw new DataException(DataException.Phase.RECEIVING, "[" + i + "]", e);
+                }
+            }
+            return list;
+        }, (json) -> {
+            if(!json.isJsonArray()) {
+                List<T> list = new ArrayList<>(1);
+                list.add(singleDataType.read(json));
+                return list;
+            }
+            JsonArray array = json.getAsJsonArray();
+            List<T> list = new ArrayList<>(array.size());
             int i = 0;
-            for(T elem : list) {
+            for(JsonElement je : array) {
                 try {
-                    singleDataType.send(buf, elem);
+                    list.add(singleDataType.read(je));
                 } catch(DataException e) {
                     throw e.prepend("[" + i + "]");
                 } catch(Exception e) {
-                    throw new DataException(DataException.Phase.WRITING, "[" + i + "]", e);
+                    throw new DataException(DataException.Phase.READING, "[" + i + "]", e);
                 }
                 i++;
             }
-        }, (buf) -> {
-            int count = buf.readInt();
-            LinkedList<T> list = new LinkedList<>();
-            for(int i = 0; i < count; i++) {
+            return list;
+        }, (reader) -> {
+            if(reader.peek() != JsonToken.BEGIN_ARRAY) {
+                List<T> list = new ArrayList<>(1);
+                list.add(singleDataType.read(reader));
+                return list;
+            }
+            ArrayList<T> list = new ArrayList<>();
+            reader.beginArray();
+            int i = 0;
+            while(reader.hasNext()) {
                 try {
-                    list.add(singleDataType.receive(buf));
+                    list.add(singleDataType.read(reader));
                 } catch(DataException e) {
                     throw e.prepend("[" + i + "]");
                 } catch(Exception e) {
-                    throw new DataException(DataException.Phase.RECEIVING, "[" + i + "]", e);
+                    throw new DataException(DataException.Phase.READING, "[" + i + "]", e);
                 }
+                i++;
             }
+            reader.endArray();
             return list;
+        });
+    }
+
+    // Primitive values are read as raw bits into a long array, and then copied into a list backed by a primitive array
+    private static <T> SerializableDataType<List<T>> primitiveList(PrimitiveDataType<T> singleDataType) {
+        return new SerializableDataType<>(ClassUtil.castClass(List.class), (buf, list) -> sendList(buf, singleDataType, list), (buf) -> {
+            int count = readCount(buf);
+            // Every primitive value takes at least one byte
+            long[] bits = new long[Math.min(count, buf.readableBytes())];
+            for(int i = 0; i < count; i++) {
+                try {
+                    bits[i] = singleDataType.receiveBits(buf);
+                } catch(Exception e) {
+                    throw new DataException(DataException.Phase.RECEIVING, "[" + i + "]", e);
+                }
+            }
+            return singleDataType.toList(bits, count);
         }, (json) -> {
-            LinkedList<T> list = new LinkedList<>();
-            if(json.isJsonArray()) {
-                int i = 0;
-                for(JsonElement je : json.getAsJsonArray()) {
-                    try {
-                        list.add(singleDataType.read(je));
-                    } catch(DataException e) {
-                        throw e.prepend("[" + i + "]");
-                    } catch(Exception e) {
-                        throw new DataException(DataException.Phase.READING, "[" + i + "]", e);
-                    }
-                    i++;
+            if(!json.isJsonArray()) {
+                return singleDataType.toList(new long[] { singleDataType.readBits(json) }, 1);
+            }
+            JsonArray array = json.getAsJsonArray();
+            long[] bits = new long[array.size()];
+            for(int i = 0; i < bits.length; i++) {
+                try {
+                    bits[i] = singleDataType.readBits(array.get(i));
+                } catch(Exception e) {
+                    throw new DataException(DataException.Phase.READING, "[" + i + "]", e);
                 }
-            } else {
-                list.add(singleDataType.read(json));
             }
-            return list;
+            return singleDataType.toList(bits, bits.length);
+        }, (reader) -> {
+            if(reader.peek() != JsonToken.BEGIN_ARRAY) {
+                return singleDataType.toList(new long[] { singleDataType.readBits(reader) }, 1);
+            }
+            long[] bits = new long[8];
+            int count = 0;
+            reader.beginArray();
+            while(reader.hasNext()) {
+                if(count == bits.length) {
+                    bits = Arrays.copyOf(bits, count * 2);
+                }
+                try {
+                    bits[count] = singleDataType.readBits(reader);
+                } catch(Exception e) {
+                    throw new DataException(DataException.Phase.READING, "[" + count + "]", e);
+                }
+                count++;
+            }
+            reader.endArray();
+            return singleDataType.toList(bits, count);
         });
     }
 
+    private static <T> void sendList(PacketByteBuf buf, SerializableDataType<T> singleDataType, List<T> list) {
+        writeCount(buf, list.size());
+        int i = 0;
+        for(T elem : list) {
+            try {
+                singleDataType.send(buf, elem);
+            } catch(DataException e) {
+                throw e.prepend("[" + i + "]");
+            } catch(Exception e) {
+                throw new DataException(DataException.Phase.WRITING, "[" + i + "]", e);
+            }
+            i++;
+        }
+    }
+
     public static <T> SerializableDataType<FilterableWeightedList<T>> weightedList(SerializableDataType<T> singleDataType) {
         return new SerializableDataType<>(ClassUtil.castClass(FilterableWeightedList.class), (buf, list) -> {
-            buf.writeInt(list.size());
+            writeCount(buf, list.size());
             AtomicInteger i = new AtomicInteger();
             list.entryStream().forEach(entry -> {
                 try {
                     singleDataType.send(buf, entry.getElement());
-                    buf.writeInt(((WeightedListEntryAccessor) entry).getWeight());
+                    writeCount(buf, ((WeightedListEntryAccessor) entry).getWeight());
                 } catch(DataException e) {
                     throw e.prepend("[" + i.get() + "]");
                 } catch(Exception e) {
@@ -116,12 +269,12 @@ public class SerializableDataType<T> {
                 i.getAndIncrement();
             });
         }, (buf) -> {
-            int count = buf.readInt();
+            int count = readCount(buf);
             FilterableWeightedList<T> list = new FilterableWeightedList<>();
             for (int i = 0; i < count; i++) {
                 try {
                     T t = singleDataType.receive(buf);
-                    int weight = buf.readInt();
+                    int weight = readCount(buf);
                     list.add(t, weight);
                 } catch(DataException e) {
                     throw e.prepend("[" + i + "]");
@@ -152,8 +305,14 @@ public class SerializableDataType<T> {
         });
     }
 
+    /***
+     * Creates a data type for entries of the given registry. With a protocol using raw registry ids, entries are sent
+     * as their raw id, but only if the registry is one of the root registries, as only those are compared when the
+     * protocol is negotiated.
+     */
     public static <T> SerializableDataType<T> registry(Class<T> dataClass, Registry<T> registry) {
-        return wrap(dataClass, SerializableDataTypes.IDENTIFIER, registry::getId, id -> {
+        boolean rawIdsAllowed = isRootRegistry(registry);
+        Function<Identifier, T> fromId = id -> {
             Optional<T> optional = registry.getOrEmpty(id);
             if(optional.isPresent()) {
                 return optional.get();
@@ -161,14 +320,46 @@ public class SerializableDataType<T> {
                 throw new RuntimeException(
                     "Identifier \"" + id + "\" was not registered in registry \"" + registry.getKey().getValue() + "\".");
             }
-        });
+        };
+        return new SerializableDataType<>(dataClass,
+            (buf, t) -> {
+                if(rawIdsAllowed && DataProtocol.of(buf).isRawRegistryIds()) {
+                    int rawId = registry.getRawId(t);
+                    if(rawId < 0) {
+                        throw new RuntimeException("Value was not registered in registry \"" + registry.getKey().getValue() + "\".");
+                    }
+                    buf.writeVarInt(rawId);
+                } else {
+                    SerializableDataTypes.IDENTIFIER.send(buf, registry.getId(t));
+                }
+            },
+            (buf) -> {
+                if(rawIdsAllowed && DataProtocol.of(buf).isRawRegistryIds()) {
+                    int rawId = buf.readVarInt();
+                    T t = registry.get(rawId);
+                    if(t == null) {
+                        throw new RuntimeException(
+                            "Raw id " + rawId + " was not registered in registry \"" + registry.getKey().getValue() + "\".");
+                    }
+                    return t;
+                }
+                return fromId.apply(SerializableDataTypes.IDENTIFIER.receive(buf));
+            },
+            (json) -> fromId.apply(SerializableDataTypes.IDENTIFIER.read(json)),
+            (reader) -> fromId.apply(SerializableDataTypes.IDENTIFIER.read(reader)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean isRootRegistry(Registry<?> registry) {
+        return ((Registry<Object>)(Registry<?>)Registry.REGISTRIES).getId(registry) != null;
     }
 
     public static <T> SerializableDataType<T> compound(Class<T> dataClass, SerializableData data, Function<SerializableData.Instance, T> toInstance, BiFunction<SerializableData, T, SerializableData.Instance> toData) {
         return new SerializableDataType<>(dataClass,
             (buf, t) -> data.write(buf, toData.apply(data, t)),
             (buf) -> toInstance.apply(data.read(buf)),
-            (json) -> toInstance.apply(data.read(json.getAsJsonObject())));
+            (json) -> toInstance.apply(data.read(json.getAsJsonObject())),
+            (reader) -> toInstance.apply(data.read(reader)));
     }
 
     public static <T extends Enum<T>> SerializableDataType<T> enumValue(Class<T> dataClass) {
@@ -176,45 +367,17 @@ public class SerializableDataType<T> {
     }
 
     public static <T extends Enum<T>> SerializableDataType<T> enumValue(Class<T> dataClass, HashMap<String, T> additionalMap) {
+        EnumLookup<T> lookup = new EnumLookup<>(dataClass, additionalMap);
         return new SerializableDataType<>(dataClass,
-            (buf, t) -> buf.writeInt(t.ordinal()),
-            (buf) -> dataClass.getEnumConstants()[buf.readInt()],
+            (buf, t) -> writeCount(buf, t.ordinal()),
+            (buf) -> lookup.values[readCount(buf)],
             (json) -> {
                 if(json.isJsonPrimitive()) {
                     JsonPrimitive primitive = json.getAsJsonPrimitive();
                     if(primitive.isNumber()) {
-                        int enumOrdinal = primitive.getAsInt();
-                        T[] enumValues = dataClass.getEnumConstants();
-                        if(enumOrdinal < 0 || enumOrdinal >= enumValues.length) {
-                            throw new JsonSyntaxException("Expected to be in the range of 0 - " + (enumValues.length - 1));
-                        }
-                        return enumValues[enumOrdinal];
+                        return lookup.get(primitive.getAsInt());
                     } else if(primitive.isString()) {
-                        String enumName = primitive.getAsString();
-                        try {
-                            T t = Enum.valueOf(dataClass, enumName);
-                            return t;
-                        } catch(IllegalArgumentException e0) {
-                            try {
-                                T t = Enum.valueOf(dataClass, enumName.toUpperCase(Locale.ROOT));
-                                return t;
-                            } catch (IllegalArgumentException e1) {
-                                try {
-                                    if(additionalMap == null || !additionalMap.containsKey(enumName)) {
-                                        throw new IllegalArgumentException();
-                                    }
-                                    T t = additionalMap.get(enumName);
-                                    return t;
-                                } catch (IllegalArgumentException e2) {
-                                    T[] enumValues = dataClass.getEnumConstants();
-                                    String stringOf = enumValues[0].name() + ", " + enumValues[0].name().toLowerCase(Locale.ROOT);
-                                    for(int i = 1; i < enumValues.length; i++) {
-                                        stringOf += ", " + enumValues[i].name() + ", " + enumValues[i].name().toLowerCase(Locale.ROOT);
-                                    }
-                                    throw new JsonSyntaxException("Expected value to be a string of: " + stringOf);
-                                }
-                            }
-                        }
+                        return lookup.get(primitive.getAsString());
                     }
                 }
                 throw new JsonSyntaxException("Expected value to be either an integer or a string.");
@@ -249,7 +412,8 @@ public class SerializableDataType<T> {
         return new SerializableDataType<>(dataClass,
             (buf, t) -> base.send(buf, toFunction.apply(t)),
             (buf) -> fromFunction.apply(base.receive(buf)),
-            (json) -> fromFunction.apply(base.read(json)));
+            (json) -> fromFunction.apply(base.read(json)),
+            (reader) -> fromFunction.apply(base.read(reader)));
     }
 
     public static <T> SerializableDataType<Tag<T>> tag(RegistryKey<? extends Registry<T>> registryKey) {
@@ -264,17 +428,34 @@ public class SerializableDataType<T> {
     }
 
     public static <T extends Enum<T>> SerializableDataType<EnumSet<T>> enumSet(Class<T> enumClass, SerializableDataType<T> enumDataType) {
+        T[] allValues = enumClass.getEnumConstants();
         return new SerializableDataType<>(ClassUtil.castClass(EnumSet.class),
             (buf, set) -> {
-                buf.writeInt(set.size());
-                set.forEach(t -> buf.writeInt(t.ordinal()));
+                if(DataProtocol.of(buf).isCompact() && allValues.length <= Long.SIZE) {
+                    long mask = 0;
+                    for(T t : set) {
+                        mask |= 1L << t.ordinal();
+                    }
+                    buf.writeVarLong(mask);
+                    return;
+                }
+                writeCount(buf, set.size());
+                set.forEach(t -> writeCount(buf, t.ordinal()));
             },
             (buf) -> {
-                int size = buf.readInt();
                 EnumSet<T> set = EnumSet.noneOf(enumClass);
-                T[] allValues = enumClass.getEnumConstants();
+                if(DataProtocol.of(buf).isCompact() && allValues.length <= Long.SIZE) {
+                    long mask = buf.readVarLong();
+                    for(int i = 0; i < allValues.length; i++) {
+                        if((mask & (1L << i)) != 0) {
+                            set.add(allValues[i]);
+                        }
+                    }
+                    return set;
+                }
+                int size = readCount(buf);
                 for(int i = 0; i < size; i++) {
-                    int ordinal = buf.readInt();
+                    int ordinal = readCount(buf);
                     set.add(allValues[ordinal]);
                 }
                 return set;
@@ -282,13 +463,13 @@ public class SerializableDataType<T> {
             (json) -> {
                 EnumSet<T> set = EnumSet.noneOf(enumClass);
                 if(json.isJsonPrimitive()) {
-                    T t = enumDataType.read.apply(json);
+                    T t = enumDataType.read(json);
                     set.add(t);
                 } else
                 if(json.isJsonArray()) {
                     JsonArray array = json.getAsJsonArray();
                     for (JsonElement jsonElement : array) {
-                        T t = enumDataType.read.apply(jsonElement);
+                        T t = enumDataType.read(jsonElement);
                         set.add(t);
                     }
                 } else {
@@ -297,4 +478,131 @@ public class SerializableDataType<T> {
                 return set;
             });
     }
+
+    private static final class InternedDataType<T> extends SerializableDataType<T> {
+
+        private final SerializableDataType<T> dataType;
+        // Keyed by the JSON string, together with the file it is read in if it contains a `*`, or the protocol and a ByteBuffer of the received bytes, the values are only weakly referenced
+        private final Cache<Object, T> values = CacheBuilder.newBuilder().weakValues().build();
+
+        private InternedDataType(SerializableDataType<T> dataType) {
+            super(dataType.getDataClass());
+            this.dataType = dataType;
+        }
+
+        @Override
+        public void send(PacketByteBuf buffer, Object value) {
+            dataType.send(buffer, value);
+        }
+
+        @Override
+        public T receive(PacketByteBuf buffer) {
+            int start = buffer.readerIndex();
+            T value = dataType.receive(buffer);
+            byte[] bytes = new byte[buffer.readerIndex() - start];
+            buffer.getBytes(start, bytes);
+            // The same bytes can mean different values in different protocols
+            return intern(Arrays.asList(DataProtocol.of(buffer), ByteBuffer.wrap(bytes)), value);
+        }
+
+        @Override
+        public T read(JsonElement jsonElement) {
+            String json = jsonElement.toString();
+            // Only identifiers containing a `*` resolve to different values in different files
+            Object key = json.indexOf('*') < 0 ? json
+                : Arrays.asList(json, SerializableData.getCurrentNamespace(), SerializableData.getCurrentPath());
+            T value = values.getIfPresent(key);
+            if(value != null) {
+                return value;
+            }
+            return intern(key, dataType.read(jsonElement));
+        }
+
+        @Override
+        public T read(JsonReader reader) throws IOException {
+            return read(Streams.parse(reader));
+        }
+
+        @Override
+        public SerializableDataType<T> interned() {
+            return this;
+        }
+
+        private T intern(Object key, T value) {
+            if(value == null) {
+                return null;
+            }
+            T previous = values.asMap().putIfAbsent(key, value);
+            return previous != null ? previous : value;
+        }
+    }
+
+    // The constants of an enum and every name they can be read from, resolved once per data type
+    private static final class EnumLookup<T extends Enum<T>> {
+        private final T[] values;
+        private final Map<String, T> constants = new HashMap<>();
+        private final Map<String, T> names = new HashMap<>();
+        private final String ordinalError;
+        private final String nameError;
+
+        private EnumLookup(Class<T> enumClass, Map<String, T> additionalMap) {
+            this.values = enumClass.getEnumConstants();
+            StringBuilder validNames = new StringBuilder();
+            for(T value : values) {
+                constants.put(value.name(), value);
+                if(validNames.length() > 0) {
+                    validNames.append(", ");
+                }
+                validNames.append(value.name()).append(", ").append(value.name().toLowerCase(Locale.ROOT));
+            }
+            // A name resolves to the constant of that name, then to the constant of its upper case form,
+            // and only then to the additional names
+            if(additionalMap != null) {
+                additionalMap.forEach((name, value) -> {
+                    if(resolveConstant(name) == null) {
+                        names.put(name, value);
+                    }
+                });
+            }
+            for(T value : values) {
+                names.put(value.name(), value);
+                String lowerCase = value.name().toLowerCase(Locale.ROOT);
+                T resolved = resolveConstant(lowerCase);
+                if(resolved != null) {
+                    names.put(lowerCase, resolved);
+                }
+            }
+            this.ordinalError = "Expected to be in the range of 0 - " + (values.length - 1);
+            this.nameError = "Expected value to be a string of: " + validNames;
+        }
+
+        private T resolveConstant(String name) {
+            T value = constants.get(name);
+            return value != null ? value : constants.get(name.toUpperCase(Locale.ROOT));
+        }
+
+        private T get(int ordinal) {
+            if(ordinal < 0 || ordinal >= values.length) {
+                throw new JsonSyntaxException(ordinalError);
+            }
+            return values[ordinal];
+        }
+
+        private T get(String name) {
+            T value = names.get(name);
+            if(value == null) {
+                // Other capitalizations of the constants' names
+                value = constants.get(name.toUpperCase(Locale.ROOT));
+                if(value == null) {
+                    throw new JsonSyntaxException(nameError);
+                }
+            }
+            return value;
+        }
+    }
+
+    @FunctionalInterface
+    public interface StreamReader<T> {
+        T read(JsonReader reader) throws IOException;
+    }
 }
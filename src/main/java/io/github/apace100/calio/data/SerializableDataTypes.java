@@ -1,11 +1,17 @@
 package io.github.apace100.calio.data;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.HashBiMap;
 import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.internal.Streams;
+import com.google.gson.stream.JsonToken;
 import com.mojang.brigadier.StringReader;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import io.github.apace100.calio.Calio;
@@ -28,8 +34,14 @@ import net.minecraft.fluid.Fluid;
 import net.minecraft.item.FoodComponent;
 import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.ByteTag;
 import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.DoubleTag;
+import net.minecraft.nbt.IntTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.LongTag;
 import net.minecraft.nbt.StringNbtReader;
+import net.minecraft.nbt.StringTag;
 import net.minecraft.network.PacketByteBuf;
 import net.minecraft.particle.ParticleType;
 import net.minecraft.recipe.Ingredient;
@@ -37,8 +49,6 @@ import net.minecraft.recipe.Recipe;
 import net.minecraft.recipe.RecipeSerializer;
 import net.minecraft.sound.SoundEvent;
 import net.minecraft.tag.Tag;
-import net.minecraft.tag.TagGroup;
-import net.minecraft.tag.TagManager;
 import net.minecraft.text.Text;
 import net.minecraft.util.*;
 import net.minecraft.util.math.Direction;
@@ -50,73 +60,27 @@ import java.util.*;
 
 public final class SerializableDataTypes {
 
-    public static final SerializableDataType<Integer> INT = new SerializableDataType<>(
-        Integer.class,
-        PacketByteBuf::writeInt,
-        PacketByteBuf::readInt,
-        JsonElement::getAsInt);
-
-    public static final SerializableDataType<Boolean> BOOLEAN = new SerializableDataType<>(
-        Boolean.class,
-        PacketByteBuf::writeBoolean,
-        PacketByteBuf::readBoolean,
-        JsonElement::getAsBoolean);
-
-    public static final SerializableDataType<Float> FLOAT = new SerializableDataType<>(
-        Float.class,
-        PacketByteBuf::writeFloat,
-        PacketByteBuf::readFloat,
-        JsonElement::getAsFloat);
-
-    public static final SerializableDataType<Double> DOUBLE = new SerializableDataType<>(
-        Double.class,
-        PacketByteBuf::writeDouble,
-        PacketByteBuf::readDouble,
-        JsonElement::getAsDouble);
+    public static final SerializableDataType<Integer> INT = new PrimitiveDataType.IntType();
+
+    public static final SerializableDataType<Boolean> BOOLEAN = new PrimitiveDataType.BooleanType();
+
+    public static final SerializableDataType<Float> FLOAT = new PrimitiveDataType.FloatType();
+
+    public static final SerializableDataType<Double> DOUBLE = new PrimitiveDataType.DoubleType();
 
     public static final SerializableDataType<String> STRING = new SerializableDataType<>(
         String.class,
         PacketByteBuf::writeString,
         (buf) -> buf.readString(32767),
-        JsonElement::getAsString);
+        JsonElement::getAsString,
+        (reader) -> reader.peek() == JsonToken.BOOLEAN ? Boolean.toString(reader.nextBoolean()) : reader.nextString());
 
     public static final SerializableDataType<Identifier> IDENTIFIER = new SerializableDataType<>(
         Identifier.class,
         PacketByteBuf::writeIdentifier,
         PacketByteBuf::readIdentifier,
-        (json) -> {
-            String idString = json.getAsString();
-            if(idString.contains(":")) {
-                String[] idSplit = idString.split(":");
-                if(idSplit.length != 2) {
-                    throw new InvalidIdentifierException("Incorrect number of `:` in identifier: \"" + idString + "\".");
-                }
-                if(idSplit[0].contains("*")) {
-                    if(SerializableData.CURRENT_NAMESPACE != null) {
-                        idSplit[0] = idSplit[0].replace("*", SerializableData.CURRENT_NAMESPACE);
-                    } else {
-                        throw new InvalidIdentifierException("Identifier may not contain a `*` in the namespace when read here.");
-                    }
-                }
-                if(idSplit[1].contains("*")) {
-                    if(SerializableData.CURRENT_PATH != null) {
-                        idSplit[1] = idSplit[1].replace("*", SerializableData.CURRENT_PATH);
-                    } else {
-                        throw new InvalidIdentifierException("Identifier may only contain a `*` in the path inside of powers.");
-                    }
-                }
-                idString = idSplit[0] + ":" + idSplit[1];
-            } else {
-                if(idString.contains("*")) {
-                    if(SerializableData.CURRENT_PATH != null) {
-                        idString = idString.replace("*", SerializableData.CURRENT_PATH);
-                    } else {
-                        throw new InvalidIdentifierException("Identifier may only contain a `*` in the path inside of powers.");
-                    }
-                }
-            }
-            return new Identifier(idString);
-        });
+        (json) -> parseIdentifier(json.getAsString()),
+        (reader) -> parseIdentifier(reader.nextString()));
 
     public static final SerializableDataType<List<Identifier>> IDENTIFIERS = SerializableDataType.list(IDENTIFIER);
 
@@ -229,9 +193,7 @@ public final class SerializableDataTypes {
             }
             if(tagPresent) {
                 Tag<Item> tag = (Tag<Item>)dataInstance.get("tag");
-                List<Item> tags = new ArrayList<>();
-                Collections.copy(tag.values(), tags);
-                return tags;
+                return new ArrayList<>(tag.values());
             } else {
                 return Collections.singletonList((Item)dataInstance.get("item"));
             }
@@ -240,16 +202,11 @@ public final class SerializableDataTypes {
             if(items.size() == 1) {
                 inst.set("item", items.get(0));
             } else {
-                TagManager tagManager = Calio.getTagManager();
-                TagGroup<Item> tagGroup = tagManager.getItems();
-                Collection<Identifier> possibleTags = tagGroup.getTagsFor(items.get(0));
-                for(int i = 1; i < items.size() && possibleTags.size() > 1; i++) {
-                    possibleTags.removeAll(tagGroup.getTagsFor(items.get(i)));
-                }
-                if(possibleTags.size() != 1) {
+                Tag<Item> tag = Calio.getCoveringTag(Registry.ITEM_KEY, items);
+                if(tag == null) {
                     throw new IllegalStateException("Couldn't transform item list to a single tag");
                 }
-                inst.set("tag", tagGroup.getTag(possibleTags.stream().findFirst().get()));
+                inst.set("tag", tag);
             }
             return inst;
         });
@@ -263,7 +220,7 @@ public final class SerializableDataTypes {
         Ingredient::fromPacket,
         jsonElement -> {
             List<List<Item>> itemLists = INGREDIENT_ENTRIES.read(jsonElement);
-            List<ItemStack> items = new LinkedList<>();
+            List<ItemStack> items = new ArrayList<>();
             itemLists.forEach(itemList -> itemList.forEach(item -> items.add(new ItemStack(item))));
             return Ingredient.ofStacks(items.stream());
         });
@@ -294,15 +251,21 @@ public final class SerializableDataTypes {
 
     public static final SerializableDataType<ParticleType<?>> PARTICLE_TYPE = SerializableDataType.registry(ClassUtil.castClass(ParticleType.class), Registry.PARTICLE_TYPE);
 
-    public static final SerializableDataType<CompoundTag> NBT = SerializableDataType.wrap(CompoundTag.class, SerializableDataTypes.STRING,
-        CompoundTag::toString,
-        (str) -> {
-            try {
-                return new StringNbtReader(new StringReader(str)).parseCompoundTag();
-            } catch (CommandSyntaxException e) {
-                throw new JsonSyntaxException("Could not parse NBT tag, exception: " + e.getMessage());
+    // Parsed SNBT strings, which are copied whenever they are returned, as compound tags are mutable
+    private static final Cache<String, CompoundTag> PARSED_SNBT = CacheBuilder.newBuilder().maximumSize(1024).build();
+
+    // Read from JSON as either an SNBT string or a JSON object, see jsonToNbt. Sent as binary NBT when the compact protocol is used.
+    public static final SerializableDataType<CompoundTag> NBT = new SerializableDataType<>(CompoundTag.class,
+        (buffer, tag) -> {
+            if(DataProtocol.of(buffer).isCompact()) {
+                buffer.writeCompoundTag(tag);
+            } else {
+                buffer.writeString(tag.toString());
             }
-        });
+        },
+        (buffer) -> DataProtocol.of(buffer).isCompact() ? buffer.readCompoundTag() : parseNbt(buffer.readString(32767)),
+        SerializableDataTypes::readNbt,
+        (reader) -> reader.peek() == JsonToken.STRING ? parseNbt(reader.nextString()) : readNbt(Streams.parse(reader)));
 
     public static final SerializableDataType<ItemStack> ITEM_STACK = SerializableDataType.compound(ItemStack.class,
         new SerializableData()
@@ -326,9 +289,16 @@ public final class SerializableDataTypes {
 
     public static final SerializableDataType<List<ItemStack>> ITEM_STACKS = SerializableDataType.list(ITEM_STACK);
 
+    // Sent in a binary encoding when the compact protocol is used, see CompactText
     public static final SerializableDataType<Text> TEXT = new SerializableDataType<>(Text.class,
-        (buffer, text) -> buffer.writeString(Text.Serializer.toJson(text)),
-        (buffer) -> Text.Serializer.fromJson(buffer.readString(32767)),
+        (buffer, text) -> {
+            if(DataProtocol.of(buffer).isCompact()) {
+                CompactText.write(buffer, text);
+            } else {
+                buffer.writeString(Text.Serializer.toJson(text));
+            }
+        },
+        (buffer) -> DataProtocol.of(buffer).isCompact() ? CompactText.read(buffer) : CompactText.fromJson(buffer.readString(32767)),
         Text.Serializer::fromJson);
 
     public static final SerializableDataType<List<Text>> TEXTS = SerializableDataType.list(TEXT);
@@ -443,4 +413,73 @@ public final class SerializableDataTypes {
                 throw new RuntimeException("Specified class does not exist: \"" + str + "\".");
             }
         });
+
+    private static Identifier parseIdentifier(String idString) {
+        return IdentifierParser.parse(idString, SerializableData.getCurrentNamespace(), SerializableData.getCurrentPath());
+    }
+
+    private static CompoundTag readNbt(JsonElement jsonElement) {
+        if(jsonElement.isJsonObject()) {
+            return (CompoundTag)jsonToNbt(jsonElement);
+        }
+        return parseNbt(jsonElement.getAsString());
+    }
+
+    // Converts JSON to NBT like SNBT without type suffixes would be parsed: whole numbers become int tags, or long tags
+    // if they don't fit into an int, other numbers double tags and booleans byte tags. Arrays become list tags, so all
+    // of their elements need to have the same type.
+    private static net.minecraft.nbt.Tag jsonToNbt(JsonElement jsonElement) {
+        if(jsonElement.isJsonObject()) {
+            CompoundTag compound = new CompoundTag();
+            for(Map.Entry<String, JsonElement> entry : jsonElement.getAsJsonObject().entrySet()) {
+                compound.put(entry.getKey(), jsonToNbt(entry.getValue()));
+            }
+            return compound;
+        }
+        if(jsonElement.isJsonArray()) {
+            JsonArray array = jsonElement.getAsJsonArray();
+            ListTag list = new ListTag();
+            for(JsonElement element : array) {
+                net.minecraft.nbt.Tag tag = jsonToNbt(element);
+                if(!list.isEmpty() && list.get(0).getType() != tag.getType()) {
+                    throw new JsonSyntaxException("Could not convert JSON array to an NBT list tag, as its elements have different types.");
+                }
+                list.add(tag);
+            }
+            return list;
+        }
+        if(jsonElement.isJsonPrimitive()) {
+            JsonPrimitive primitive = jsonElement.getAsJsonPrimitive();
+            if(primitive.isBoolean()) {
+                return ByteTag.of(primitive.getAsBoolean());
+            }
+            if(primitive.isNumber()) {
+                String number = primitive.getAsString();
+                if(number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0) {
+                    try {
+                        long value = Long.parseLong(number);
+                        return value == (int)value ? IntTag.of((int)value) : LongTag.of(value);
+                    } catch (NumberFormatException e) {
+                        // Too large for a long
+                    }
+                }
+                return DoubleTag.of(primitive.getAsDouble());
+            }
+            return StringTag.of(primitive.getAsString());
+        }
+        throw new JsonSyntaxException("Could not convert JSON null to an NBT tag.");
+    }
+
+    private static CompoundTag parseNbt(String snbt) {
+        CompoundTag tag = PARSED_SNBT.getIfPresent(snbt);
+        if(tag == null) {
+            try {
+                tag = new StringNbtReader(new StringReader(snbt)).parseCompoundTag();
+            } catch (CommandSyntaxException e) {
+                throw new JsonSyntaxException("Could not parse NBT tag, exception: " + e.getMessage());
+            }
+            PARSED_SNBT.put(snbt, tag);
+        }
+        return tag.copy();
+    }
 }
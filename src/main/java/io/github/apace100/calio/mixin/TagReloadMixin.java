@@ -0,0 +1,33 @@
+package io.github.apace100.calio.mixin;
+
+import io.github.apace100.calio.Calio;
+import net.minecraft.client.network.ClientPlayNetworkHandler;
+import net.minecraft.network.packet.s2c.play.SynchronizeTagsS2CPacket;
+import net.minecraft.tag.ServerTagManagerHolder;
+import net.minecraft.tag.TagManager;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/***
+ * These mixins advance the tag generation whenever the tags are replaced, so that cached tag lookups are invalidated.
+ */
+public abstract class TagReloadMixin {
+
+    @Mixin(ServerTagManagerHolder.class)
+    public abstract static class OnServerTagsSet {
+        @Inject(method = "setTagManager", at = @At("TAIL"))
+        private static void advanceTagGeneration(TagManager tagManager, CallbackInfo ci) {
+            Calio.onTagsReloaded();
+        }
+    }
+
+    @Mixin(ClientPlayNetworkHandler.class)
+    public abstract static class OnClientTagsSynchronized {
+        @Inject(method = "onSynchronizeTags", at = @At("TAIL"))
+        private void advanceTagGeneration(SynchronizeTagsS2CPacket packet, CallbackInfo ci) {
+            Calio.onTagsReloaded();
+        }
+    }
+}
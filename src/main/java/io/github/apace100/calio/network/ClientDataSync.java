@@ -0,0 +1,217 @@
+package io.github.apace100.calio.network;
+
+import com.google.common.hash.HashCode;
+import io.github.apace100.calio.data.DataProtocol;
+import io.netty.buffer.Unpooled;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.fabricmc.fabric.api.networking.v1.PacketSender;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.network.ClientPlayNetworkHandler;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.util.Identifier;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/***
+ * Reassembles the chunks of {@link DataSyncBatch} payloads on the client and passes the contained entries
+ * to the handler registered for the batch's channel.
+ */
+@Environment(EnvType.CLIENT)
+public final class ClientDataSync {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final Map<Identifier, Handler> HANDLERS = new ConcurrentHashMap<>();
+    private static final Map<Integer, Transfer> TRANSFERS = new ConcurrentHashMap<>();
+    // Content hashes of the entries the client currently knows, per channel
+    private static final Map<Identifier, Map<Identifier, HashCode>> HASHES = new ConcurrentHashMap<>();
+
+    private ClientDataSync() {
+
+    }
+
+    public static void registerHandler(Identifier channel, Handler handler) {
+        if(HANDLERS.putIfAbsent(channel, handler) != null) {
+            throw new IllegalArgumentException("A data sync handler was already registered for channel " + channel);
+        }
+    }
+
+    /***
+     * Forgets incomplete transfers and the content hashes of received entries, called when the client disconnects.
+     */
+    public static void clear() {
+        TRANSFERS.clear();
+        HASHES.clear();
+    }
+
+    public static void receiveChunk(MinecraftClient client, ClientPlayNetworkHandler networkHandler, PacketByteBuf buf, PacketSender sender) {
+        Identifier channel = buf.readIdentifier();
+        int transferId = buf.readVarInt();
+        int chunkIndex = buf.readVarInt();
+        int chunkCount = buf.readVarInt();
+        Transfer transfer;
+        if(chunkIndex == 0) {
+            int uncompressedSize = buf.readVarInt();
+            if(uncompressedSize < 0 || uncompressedSize > DataSyncBatch.MAX_PAYLOAD_SIZE) {
+                LOGGER.error("Received data sync transfer {} on channel {} with invalid size {}", transferId, channel, uncompressedSize);
+                return;
+            }
+            transfer = new Transfer(uncompressedSize);
+            TRANSFERS.put(transferId, transfer);
+        } else {
+            transfer = TRANSFERS.get(transferId);
+            if(transfer == null) {
+                LOGGER.warn("Received chunk {} of unknown data sync transfer {} on channel {}", chunkIndex, transferId, channel);
+                return;
+            }
+        }
+        byte[] chunk = buf.readByteArray(DataSyncBatch.MAX_CHUNK_SIZE);
+        // Deflate never grows data by more than a few bytes per block, so a longer transfer is invalid
+        if(transfer.compressed.size() + chunk.length > DataSyncBatch.MAX_PAYLOAD_SIZE + DataSyncBatch.MAX_CHUNK_SIZE) {
+            TRANSFERS.remove(transferId);
+            LOGGER.error("Data sync transfer {} on channel {} exceeded the maximum size", transferId, channel);
+            return;
+        }
+        transfer.compressed.write(chunk, 0, chunk.length);
+        if(chunkIndex < chunkCount - 1) {
+            return;
+        }
+        TRANSFERS.remove(transferId);
+        Payload payload;
+        try {
+            payload = decode(transfer);
+        } catch (DataFormatException | RuntimeException e) {
+            LOGGER.error("Couldn't decode data sync payload on channel {}", channel, e);
+            return;
+        }
+        Handler handler = HANDLERS.get(channel);
+        if(handler == null) {
+            LOGGER.warn("Received data sync payload on channel {}, which has no handler", channel);
+            return;
+        }
+        filterUnchanged(channel, payload);
+        client.execute(() -> handler.handle(client, payload));
+    }
+
+    // Drops entries of delta payloads whose content the client already has, and records the new content hashes.
+    private static void filterUnchanged(Identifier channel, Payload payload) {
+        Map<Identifier, HashCode> hashes = HASHES.computeIfAbsent(channel, id -> new ConcurrentHashMap<>());
+        if(!payload.delta) {
+            hashes.clear();
+        }
+        payload.removed.forEach(hashes::remove);
+        Iterator<Map.Entry<Identifier, PacketByteBuf>> iterator = payload.entries.entrySet().iterator();
+        while(iterator.hasNext()) {
+            Map.Entry<Identifier, PacketByteBuf> entry = iterator.next();
+            PacketByteBuf buf = entry.getValue();
+            byte[] bytes = new byte[buf.readableBytes()];
+            buf.getBytes(buf.readerIndex(), bytes);
+            HashCode hash = DataSyncTracker.hash(bytes);
+            if(hash.equals(hashes.put(entry.getKey(), hash)) && payload.delta) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static Payload decode(Transfer transfer) throws DataFormatException {
+        byte[] uncompressed = new byte[transfer.uncompressedSize];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(transfer.compressed.toByteArray());
+            int length = 0;
+            while(length < uncompressed.length && !inflater.finished()) {
+                int read = inflater.inflate(uncompressed, length, uncompressed.length - length);
+                if(read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += read;
+            }
+            if(length != uncompressed.length) {
+                throw new DataFormatException("Expected " + uncompressed.length + " bytes, but decompressed " + length);
+            }
+        } finally {
+            inflater.end();
+        }
+        PacketByteBuf frame = new PacketByteBuf(Unpooled.wrappedBuffer(uncompressed));
+        DataProtocol protocol = DataProtocol.fromFlags(frame.readVarInt());
+        boolean delta = frame.readBoolean();
+        int count = frame.readVarInt();
+        Map<Identifier, PacketByteBuf> entries = new LinkedHashMap<>();
+        for(int i = 0; i < count; i++) {
+            Identifier id = frame.readIdentifier();
+            int length = frame.readVarInt();
+            entries.put(id, protocol.wrap(frame.readSlice(length)));
+        }
+        int removedCount = frame.readVarInt();
+        Set<Identifier> removed = new LinkedHashSet<>();
+        for(int i = 0; i < removedCount; i++) {
+            removed.add(frame.readIdentifier());
+        }
+        return new Payload(protocol, delta, entries, removed);
+    }
+
+    public static class Payload {
+        private final DataProtocol protocol;
+        private final boolean delta;
+        private final Map<Identifier, PacketByteBuf> entries;
+        private final Set<Identifier> removed;
+
+        private Payload(DataProtocol protocol, boolean delta, Map<Identifier, PacketByteBuf> entries, Set<Identifier> removed) {
+            this.protocol = protocol;
+            this.delta = delta;
+            this.entries = entries;
+            this.removed = removed;
+        }
+
+        /***
+         * The protocol the entries were written with. The entry buffers already use it when values are received.
+         */
+        public DataProtocol getProtocol() {
+            return protocol;
+        }
+
+        /***
+         * If false, the payload contains every entry of the channel and replaces all previously received ones.
+         * If true, it only contains the added and changed entries, and the identifiers of the removed ones.
+         */
+        public boolean isDelta() {
+            return delta;
+        }
+
+        /***
+         * The entries in the order they were added. Each buffer contains exactly the bytes written for its entry.
+         */
+        public Map<Identifier, PacketByteBuf> getEntries() {
+            return Collections.unmodifiableMap(entries);
+        }
+
+        public Set<Identifier> getRemoved() {
+            return Collections.unmodifiableSet(removed);
+        }
+    }
+
+    private static class Transfer {
+        private final int uncompressedSize;
+        private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+        private Transfer(int uncompressedSize) {
+            this.uncompressedSize = uncompressedSize;
+        }
+    }
+
+    @FunctionalInterface
+    public interface Handler {
+
+        /***
+         * Called on the client thread with the contents of a received batch.
+         */
+        void handle(MinecraftClient client, Payload payload);
+    }
+}
@@ -0,0 +1,109 @@
+package io.github.apace100.calio.network;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import io.github.apace100.calio.data.DataProtocol;
+import io.netty.buffer.Unpooled;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.fabricmc.fabric.api.networking.v1.ServerLoginConnectionEvents;
+import net.fabricmc.fabric.api.networking.v1.ServerLoginNetworking;
+import net.minecraft.network.ClientConnection;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.registry.Registry;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/***
+ * Negotiates the {@link DataProtocol} of every connection with a login query. The compact protocol is used if the
+ * client supports it, and raw registry ids only if the client's registries have the same contents as the server's.
+ * Clients which don't answer the query, like vanilla clients or older versions of calio, use the legacy protocol.
+ */
+public final class DataProtocolNegotiation {
+
+    public static final Identifier CHANNEL = new Identifier("calio", "protocol");
+
+    private static final int SUPPORTED_FLAGS = DataProtocol.COMPACT_RAW_IDS.getFlags();
+
+    private static final Map<ClientConnection, DataProtocol> PROTOCOLS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private static volatile HashCode serverRegistryHash;
+
+    private DataProtocolNegotiation() {
+
+    }
+
+    public static void register() {
+        ServerLoginConnectionEvents.QUERY_START.register((handler, server, sender, synchronizer) -> {
+            PacketByteBuf buf = new PacketByteBuf(Unpooled.buffer());
+            buf.writeVarInt(SUPPORTED_FLAGS);
+            sender.sendPacket(CHANNEL, buf);
+        });
+        ServerLoginNetworking.registerGlobalReceiver(CHANNEL, (server, handler, understood, buf, synchronizer, responseSender) -> {
+            DataProtocol protocol = DataProtocol.LEGACY;
+            if(understood) {
+                int flags = buf.readVarInt() & SUPPORTED_FLAGS;
+                byte[] registryHash = buf.readByteArray(64);
+                if((flags & DataProtocol.COMPACT_RAW_IDS.getFlags()) == DataProtocol.COMPACT_RAW_IDS.getFlags()
+                    && !Arrays.equals(registryHash, getServerRegistryHash().asBytes())) {
+                    flags &= DataProtocol.COMPACT.getFlags();
+                }
+                protocol = DataProtocol.fromFlags(flags);
+            }
+            PROTOCOLS.put(handler.connection, protocol);
+        });
+    }
+
+    /***
+     * Answers the login query of the server on the client, see CalioClient.
+     */
+    @Environment(EnvType.CLIENT)
+    public static PacketByteBuf createResponse(PacketByteBuf query) {
+        int flags = query.readVarInt() & SUPPORTED_FLAGS;
+        PacketByteBuf response = new PacketByteBuf(Unpooled.buffer());
+        response.writeVarInt(flags);
+        response.writeByteArray(hashRegistries().asBytes());
+        return response;
+    }
+
+    /***
+     * Returns the protocol negotiated with the given player's client.
+     */
+    public static DataProtocol getProtocol(ServerPlayerEntity player) {
+        return PROTOCOLS.getOrDefault(player.networkHandler.connection, DataProtocol.LEGACY);
+    }
+
+    // The registries don't change once the server is running, so their hash is only computed once
+    private static HashCode getServerRegistryHash() {
+        HashCode hash = serverRegistryHash;
+        if(hash == null) {
+            hash = hashRegistries();
+            serverRegistryHash = hash;
+        }
+        return hash;
+    }
+
+    // Hashes the identifiers of the entries of every registry in the order of their raw ids
+    private static HashCode hashRegistries() {
+        List<Identifier> registryIds = new ArrayList<>(Registry.REGISTRIES.getIds());
+        registryIds.sort(Comparator.comparing(Identifier::toString));
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for(Identifier registryId : registryIds) {
+            Registry<?> registry = Registry.REGISTRIES.get(registryId);
+            hasher.putString(registryId.toString(), StandardCharsets.UTF_8);
+            hashEntries(hasher, registry);
+        }
+        return hasher.hash();
+    }
+
+    private static <T> void hashEntries(Hasher hasher, Registry<T> registry) {
+        for(T entry : registry) {
+            hasher.putInt(registry.getRawId(entry));
+            hasher.putString(String.valueOf(registry.getId(entry)), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package io.github.apace100.calio.network;
+
+import io.github.apace100.calio.Calio;
+import io.github.apace100.calio.data.DataProtocol;
+import io.github.apace100.calio.data.SerializableData;
+import io.netty.buffer.Unpooled;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.util.Identifier;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/***
+ * Collects many serialized data entries into one payload, which is compressed and sent to clients in as few
+ * packets as possible. Entries are identified by an identifier and received on the client by the handler that was
+ * registered for the batch's channel with {@link ClientDataSync#registerHandler(Identifier, ClientDataSync.Handler)}.
+ * <p>
+ * Entries are written with the batch's {@link DataProtocol}, so it can only be sent to players which negotiated a
+ * protocol supporting it, see {@link DataProtocolNegotiation#getProtocol(ServerPlayerEntity)}.
+ */
+public class DataSyncBatch {
+
+    // Stays well below the 1 MiB limit of custom payload packets sent to the client
+    static final int MAX_CHUNK_SIZE = 512 * 1024;
+    // The client refuses larger payloads, as it allocates the uncompressed size sent by the server up front
+    static final int MAX_PAYLOAD_SIZE = 64 * 1024 * 1024;
+
+    private static final AtomicInteger NEXT_TRANSFER_ID = new AtomicInteger();
+
+    private final Identifier channel;
+    private final boolean delta;
+    private final DataProtocol protocol;
+    private final PacketByteBuf entries = new PacketByteBuf(Unpooled.buffer());
+    private final List<Identifier> removed = new ArrayList<>();
+    private int entryCount;
+    private List<byte[]> chunks;
+    private int uncompressedSize;
+
+    public DataSyncBatch(Identifier channel) {
+        this(channel, false);
+    }
+
+    /***
+     * @param delta Whether this batch only contains the entries which changed since the last batch on the channel.
+     *              If false, the batch replaces everything the client received on the channel before.
+     */
+    public DataSyncBatch(Identifier channel, boolean delta) {
+        this(channel, delta, DataProtocol.LEGACY);
+    }
+
+    public DataSyncBatch(Identifier channel, boolean delta, DataProtocol protocol) {
+        this.channel = channel;
+        this.delta = delta;
+        this.protocol = protocol;
+    }
+
+    public Identifier getChannel() {
+        return channel;
+    }
+
+    public boolean isDelta() {
+        return delta;
+    }
+
+    public DataProtocol getProtocol() {
+        return protocol;
+    }
+
+    public int size() {
+        return entryCount;
+    }
+
+    public boolean isEmpty() {
+        return entryCount == 0 && removed.isEmpty();
+    }
+
+    public DataSyncBatch add(Identifier id, SerializableData data, SerializableData.Instance instance) {
+        PacketByteBuf entryBuf = protocol.wrap(Unpooled.buffer());
+        data.write(entryBuf, instance);
+        return add(id, entryBuf);
+    }
+
+    /***
+     * Adds an entry which was already written to a buffer. The readable bytes of the buffer are copied.
+     * The buffer must have been created with {@link DataProtocol#wrap} of the batch's protocol, or be a plain buffer
+     * if the batch uses the legacy protocol.
+     */
+    public DataSyncBatch add(Identifier id, PacketByteBuf entryData) {
+        if(chunks != null) {
+            throw new IllegalStateException("Tried to add an entry to a data sync batch which was already sent.");
+        }
+        if(DataProtocol.of(entryData) != protocol) {
+            throw new IllegalArgumentException("Tried to add an entry written with the " + DataProtocol.of(entryData)
+                + " protocol to a data sync batch using the " + protocol + " protocol.");
+        }
+        entries.writeIdentifier(id);
+        entries.writeVarInt(entryData.readableBytes());
+        entries.writeBytes(entryData, entryData.readerIndex(), entryData.readableBytes());
+        entryCount++;
+        return this;
+    }
+
+    /***
+     * Tells the client that the entry with the given identifier no longer exists. Only allowed in delta batches.
+     */
+    public DataSyncBatch remove(Identifier id) {
+        if(!delta) {
+            throw new IllegalStateException("Tried to remove an entry in a data sync batch which is not a delta.");
+        }
+        if(chunks != null) {
+            throw new IllegalStateException("Tried to remove an entry in a data sync batch which was already sent.");
+        }
+        removed.add(id);
+        return this;
+    }
+
+    public void send(ServerPlayerEntity player) {
+        send(Collections.singleton(player));
+    }
+
+    /***
+     * Sends the batch to every given player. The payload is compressed and split only once, no matter how many
+     * players it is sent to. No entries can be added to the batch afterwards.
+     * @throws IllegalArgumentException if one of the players did not negotiate a protocol supporting the batch's
+     */
+    public void send(Collection<ServerPlayerEntity> players) {
+        for(ServerPlayerEntity player : players) {
+            DataProtocol negotiated = DataProtocolNegotiation.getProtocol(player);
+            if(!protocol.isSupportedBy(negotiated)) {
+                throw new IllegalArgumentException("Tried to send a data sync batch using the " + protocol
+                    + " protocol to " + player.getEntityName() + ", who negotiated the " + negotiated + " protocol.");
+            }
+        }
+        if(chunks == null) {
+            prepareChunks();
+        }
+        int transferId = NEXT_TRANSFER_ID.getAndIncrement();
+        for(ServerPlayerEntity player : players) {
+            for(int i = 0; i < chunks.size(); i++) {
+                PacketByteBuf buf = new PacketByteBuf(Unpooled.buffer());
+                buf.writeIdentifier(channel);
+                buf.writeVarInt(transferId);
+                buf.writeVarInt(i);
+                buf.writeVarInt(chunks.size());
+                if(i == 0) {
+                    buf.writeVarInt(uncompressedSize);
+                }
+                buf.writeByteArray(chunks.get(i));
+                ServerPlayNetworking.send(player, Calio.PACKET_SYNC_CHUNK, buf);
+            }
+        }
+    }
+
+    private void prepareChunks() {
+        PacketByteBuf frame = new PacketByteBuf(Unpooled.buffer());
+        frame.writeVarInt(protocol.getFlags());
+        frame.writeBoolean(delta);
+        frame.writeVarInt(entryCount);
+        frame.writeBytes(entries);
+        frame.writeVarInt(removed.size());
+        removed.forEach(frame::writeIdentifier);
+        if(frame.readableBytes() > MAX_PAYLOAD_SIZE) {
+            throw new IllegalStateException("Data sync batch on channel " + channel + " has " + frame.readableBytes()
+                + " bytes, more than the maximum of " + MAX_PAYLOAD_SIZE + " bytes.");
+        }
+        byte[] uncompressed = new byte[frame.readableBytes()];
+        frame.readBytes(uncompressed);
+        uncompressedSize = uncompressed.length;
+
+        Deflater deflater = new Deflater();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, uncompressed.length / 4));
+        try {
+            deflater.setInput(uncompressed);
+            deflater.finish();
+            byte[] buffer = new byte[8192];
+            while(!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                compressed.write(buffer, 0, length);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        byte[] bytes = compressed.toByteArray();
+        chunks = new ArrayList<>();
+        for(int offset = 0; offset < bytes.length || chunks.isEmpty(); offset += MAX_CHUNK_SIZE) {
+            int length = Math.min(MAX_CHUNK_SIZE, bytes.length - offset);
+            byte[] chunk = new byte[length];
+            System.arraycopy(bytes, offset, chunk, 0, length);
+            chunks.add(chunk);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package io.github.apace100.calio.network;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import io.github.apace100.calio.data.DataProtocol;
+import io.github.apace100.calio.data.SerializableData;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.util.Identifier;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/***
+ * Keeps track of the serialized entries last synced on a channel, so that after a reload only the added, changed
+ * and removed entries have to be sent to the players which are already connected. Entries are compared by a hash
+ * of their serialized bytes.
+ * <p>
+ * Usage: after every reload, put all current entries into an {@link #update()} and send the returned delta batch to
+ * all connected players. Players which join later get the batch from {@link #getFullBatch()}.
+ * <p>
+ * Entries are written with the tracker's {@link DataProtocol}, so players which negotiated a different protocol need
+ * a tracker of their own.
+ */
+public class DataSyncTracker {
+
+    private static final HashFunction ENTRY_HASH = Hashing.murmur3_128();
+
+    private final Identifier channel;
+    private final DataProtocol protocol;
+    private Map<Identifier, SyncedEntry> entries = new LinkedHashMap<>();
+    private DataSyncBatch fullBatch;
+
+    public DataSyncTracker(Identifier channel) {
+        this(channel, DataProtocol.LEGACY);
+    }
+
+    public DataSyncTracker(Identifier channel, DataProtocol protocol) {
+        this.channel = channel;
+        this.protocol = protocol;
+    }
+
+    public DataProtocol getProtocol() {
+        return protocol;
+    }
+
+    static HashCode hash(byte[] bytes) {
+        return ENTRY_HASH.hashBytes(bytes);
+    }
+
+    public Update update() {
+        return new Update();
+    }
+
+    /***
+     * Returns a batch containing every entry. The batch is only compressed once per update, no matter how many
+     * players it is sent to.
+     */
+    public synchronized DataSyncBatch getFullBatch() {
+        if(fullBatch == null) {
+            DataSyncBatch batch = new DataSyncBatch(channel, false, protocol);
+            entries.forEach((id, entry) -> batch.add(id, protocol.wrap(entry.toBuffer())));
+            fullBatch = batch;
+        }
+        return fullBatch;
+    }
+
+    private synchronized DataSyncBatch apply(Map<Identifier, SyncedEntry> nextEntries) {
+        DataSyncBatch delta = new DataSyncBatch(channel, true, protocol);
+        nextEntries.forEach((id, entry) -> {
+            SyncedEntry previous = entries.get(id);
+            if(previous == null || !previous.hash.equals(entry.hash)) {
+                delta.add(id, protocol.wrap(entry.toBuffer()));
+            }
+        });
+        entries.keySet().forEach(id -> {
+            if(!nextEntries.containsKey(id)) {
+                delta.remove(id);
+            }
+        });
+        entries = nextEntries;
+        if(!delta.isEmpty()) {
+            fullBatch = null;
+        }
+        return delta;
+    }
+
+    /***
+     * Collects the complete set of entries after a reload.
+     */
+    public class Update {
+
+        private final Map<Identifier, SyncedEntry> nextEntries = new LinkedHashMap<>();
+
+        private Update() {
+
+        }
+
+        public Update put(Identifier id, SerializableData data, SerializableData.Instance instance) {
+            PacketByteBuf buf = protocol.wrap(Unpooled.buffer());
+            data.write(buf, instance);
+            return put(id, buf);
+        }
+
+        /***
+         * Puts an entry which was already written to a buffer, which must use the tracker's protocol like the
+         * buffers added to a {@link DataSyncBatch}.
+         */
+        public Update put(Identifier id, PacketByteBuf entryData) {
+            if(DataProtocol.of(entryData) != protocol) {
+                throw new IllegalArgumentException("Tried to put an entry written with the " + DataProtocol.of(entryData)
+                    + " protocol into a data sync tracker using the " + protocol + " protocol.");
+            }
+            byte[] bytes = new byte[entryData.readableBytes()];
+            entryData.getBytes(entryData.readerIndex(), bytes);
+            nextEntries.put(id, new SyncedEntry(bytes, hash(bytes)));
+            return this;
+        }
+
+        /***
+         * Replaces the tracked entries and returns a delta batch with everything that was added, changed or removed
+         * since the last update. The batch is empty if nothing changed, in which case it does not need to be sent.
+         */
+        public DataSyncBatch commit() {
+            return apply(nextEntries);
+        }
+    }
+
+    private static class SyncedEntry {
+        private final byte[] bytes;
+        private final HashCode hash;
+
+        private SyncedEntry(byte[] bytes, HashCode hash) {
+            this.bytes = bytes;
+            this.hash = hash;
+        }
+
+        private ByteBuf toBuffer() {
+            return Unpooled.wrappedBuffer(bytes);
+        }
+    }
+}
@@ -7,25 +7,74 @@ import net.minecraft.util.Identifier;
 import net.minecraft.util.registry.Registry;
 import net.minecraft.util.registry.RegistryKey;
 
+import java.util.BitSet;
 import java.util.List;
 
 public class IdentifiedTag<T> implements Tag.Identified<T> {
 
+    // Failed lookups are retried after a delay which doubles with every failure, until the tags are reloaded
+    private static final long MIN_RETRY_DELAY = 50L;
+    private static final long MAX_RETRY_DELAY = 2000L;
+
     private final RegistryKey<? extends Registry<T>> registryKey;
-    private Tag<T> containedTag;
+    private final Registry<T> registry;
     private Identifier id;
+    // Replaced as a whole, so threads never see the tag or raw ids of one generation together with the state of another
+    private volatile Resolved<T> resolved;
 
+    /***
+     * Creates a tag which is looked up by its identifier when it is first used. Tags of items, blocks and fluids
+     * are indexed by the raw ids of their entries, see {@link #IdentifiedTag(RegistryKey, Identifier, boolean)}.
+     */
     public IdentifiedTag(RegistryKey<? extends Registry<T>> registryKey, Identifier identifier) {
+        this(registryKey, identifier, registryKey == Registry.ITEM_KEY || registryKey == Registry.BLOCK_KEY || registryKey == Registry.FLUID_KEY);
+    }
+
+    /***
+     * @param indexed Whether the entries of the resolved tag should be compiled into a bit set of their raw ids, so
+     *                that {@link #contains(Object)} is a single bit test. Only useful for registries whose raw ids
+     *                don't change while the tag is in use.
+     */
+    @SuppressWarnings("unchecked")
+    public IdentifiedTag(RegistryKey<? extends Registry<T>> registryKey, Identifier identifier, boolean indexed) {
         this.registryKey = registryKey;
+        this.registry = indexed ? (Registry<T>)Registry.REGISTRIES.get(registryKey.getValue()) : null;
         this.id = identifier;
     }
 
-    private void updateContainedTag() {
+    private Resolved<T> getResolved() {
+        int generation = Calio.getTagGeneration();
+        Resolved<T> current = resolved;
+        if(current == null || current.generation != generation) {
+            current = resolve(generation, 0L);
+        } else if(current.tag == null && System.currentTimeMillis() >= current.retryTime) {
+            current = resolve(generation, current.retryDelay);
+        }
+        return current;
+    }
+
+    private Resolved<T> resolve(int generation, long previousRetryDelay) {
+        Resolved<T> result;
         try {
-            this.containedTag = Calio.getTag(registryKey, id, id -> new RuntimeException("Could not load tag: " + id.toString()));
+            Tag<T> tag = Calio.getTag(registryKey, id, id -> new RuntimeException("Could not load tag: " + id.toString()));
+            BitSet rawIds = null;
+            if(registry != null) {
+                rawIds = new BitSet();
+                for(T value : tag.values()) {
+                    int rawId = registry.getRawId(value);
+                    if(rawId >= 0) {
+                        rawIds.set(rawId);
+                    }
+                }
+            }
+            result = new Resolved<>(tag, rawIds, generation, 0L, 0L);
         } catch (RuntimeException e) {
             // Fail silently. This sometimes happens one frame at world load.
+            long retryDelay = previousRetryDelay == 0L ? MIN_RETRY_DELAY : Math.min(previousRetryDelay * 2, MAX_RETRY_DELAY);
+            result = new Resolved<>(null, null, generation, System.currentTimeMillis() + retryDelay, retryDelay);
         }
+        this.resolved = result;
+        return result;
     }
 
     @Override
@@ -35,23 +84,40 @@ public class IdentifiedTag<T> implements Tag.Identified<T> {
 
     @Override
     public boolean contains(T entry) {
-        if(containedTag == null) {
-            updateContainedTag();
-            if(containedTag == null) {
-                return false;
-            }
+        Resolved<T> current = getResolved();
+        if(current.tag == null) {
+            return false;
+        }
+        if(current.rawIds != null) {
+            int rawId = registry.getRawId(entry);
+            return rawId >= 0 && current.rawIds.get(rawId);
         }
-        return containedTag.contains(entry);
+        return current.tag.contains(entry);
     }
 
     @Override
     public List<T> values() {
-        if(containedTag == null) {
-            updateContainedTag();
-            if(containedTag == null) {
-                return Lists.newArrayList();
-            }
+        Tag<T> tag = getResolved().tag;
+        if(tag == null) {
+            return Lists.newArrayList();
+        }
+        return tag.values();
+    }
+
+    private static final class Resolved<T> {
+        private final Tag<T> tag;
+        // The raw ids of the tag's entries if the tag is indexed, never modified after the holder was created
+        private final BitSet rawIds;
+        private final int generation;
+        private final long retryTime;
+        private final long retryDelay;
+
+        private Resolved(Tag<T> tag, BitSet rawIds, int generation, long retryTime, long retryDelay) {
+            this.tag = tag;
+            this.rawIds = rawIds;
+            this.generation = generation;
+            this.retryTime = retryTime;
+            this.retryDelay = retryDelay;
         }
-        return containedTag.values();
     }
 }
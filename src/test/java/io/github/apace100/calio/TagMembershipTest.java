@@ -0,0 +1,89 @@
+package io.github.apace100.calio;
+
+import net.minecraft.tag.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TagMembershipTest {
+
+    private static final Object APPLE = new Object();
+    private static final Object BREAD = new Object();
+    private static final Object CARROT = new Object();
+    private static final Object STONE = new Object();
+
+    private static final Tag<Object> FOOD = new TestTag(APPLE, BREAD, CARROT);
+    private static final Tag<Object> FRUIT = new TestTag(APPLE);
+    private static final Tag<Object> BAKED = new TestTag(BREAD);
+    private static final Tag<Object> CROPS = new TestTag(CARROT, BREAD);
+    private static final Tag<Object> FARMED = new TestTag(BREAD, CARROT);
+    private static final Tag<Object> BLOCKS = new TestTag(STONE);
+
+    private final TagMembership membership = new TagMembership(Arrays.asList(FOOD, FRUIT, BAKED, CROPS, FARMED, BLOCKS));
+
+    @Test
+    void onlyTagContainingAllEntries() {
+        assertSame(FOOD, membership.findCovering(Arrays.asList(APPLE, CARROT)));
+    }
+
+    @Test
+    void intersectsTheTagsOfEveryEntry() {
+        // Bread is in four tags and carrot in three, but apple only in food and fruit
+        assertSame(FOOD, membership.findCovering(Arrays.asList(BREAD, CARROT, APPLE)));
+    }
+
+    @Test
+    void exactTagAmongSeveralCandidates() {
+        // Food and fruit both contain apple, but only fruit consists of exactly it
+        assertSame(FRUIT, membership.findCovering(Collections.singletonList(APPLE)));
+    }
+
+    @Test
+    void duplicateEntriesCountOnce() {
+        assertSame(FRUIT, membership.findCovering(Arrays.asList(APPLE, APPLE)));
+    }
+
+    @Test
+    void severalExactTagsAreAmbiguous() {
+        // Crops and farmed have the same entries
+        assertNull(membership.findCovering(Arrays.asList(BREAD, CARROT)));
+    }
+
+    @Test
+    void noTagContainsAllEntries() {
+        assertNull(membership.findCovering(Arrays.asList(APPLE, STONE)));
+    }
+
+    @Test
+    void entryWithoutTags() {
+        assertNull(membership.findCovering(Arrays.asList(APPLE, new Object())));
+    }
+
+    @Test
+    void noEntries() {
+        assertNull(membership.findCovering(Collections.emptyList()));
+    }
+
+    private static class TestTag implements Tag<Object> {
+
+        private final List<Object> values;
+
+        TestTag(Object... values) {
+            this.values = Arrays.asList(values);
+        }
+
+        @Override
+        public boolean contains(Object entry) {
+            return values.contains(entry);
+        }
+
+        @Override
+        public List<Object> values() {
+            return values;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package io.github.apace100.calio;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WeightedSamplerTest {
+
+    // Weights 2, 0, 3, 1
+    private static final int[] CUMULATIVE = {2, 2, 5, 6};
+    private static final int TOTAL = 6;
+
+    @Test
+    void pickMapsEveryTargetToItsEntry() {
+        int[] expected = {0, 0, 2, 2, 2, 3};
+        for(int target = 0; target < TOTAL; target++) {
+            assertEquals(expected[target], WeightedSampler.pick(CUMULATIVE, TOTAL, new FixedRandom(target)), "target " + target);
+        }
+    }
+
+    @Test
+    void pickNeverReturnsEntriesWithoutWeight() {
+        Random random = new Random(42);
+        for(int i = 0; i < 10000; i++) {
+            assertNotEquals(1, WeightedSampler.pick(CUMULATIVE, TOTAL, random));
+        }
+    }
+
+    @Test
+    void pickSingleEntry() {
+        assertEquals(0, WeightedSampler.pick(new int[] {5}, 5, new Random(1)));
+    }
+
+    @Test
+    void pickIsProportionalToWeight() {
+        Random random = new Random(7);
+        int[] counts = new int[CUMULATIVE.length];
+        int samples = 60000;
+        for(int i = 0; i < samples; i++) {
+            counts[WeightedSampler.pick(CUMULATIVE, TOTAL, random)]++;
+        }
+        assertEquals(samples * 2 / 6, counts[0], samples * 0.01);
+        assertEquals(0, counts[1]);
+        assertEquals(samples * 3 / 6, counts[2], samples * 0.01);
+        assertEquals(samples / 6, counts[3], samples * 0.01);
+    }
+
+    @Test
+    void pickDistinctRemovesPickedWeight() {
+        int[] indices = new int[4];
+        // Targets 2 of 6, then 2 of the remaining 3, then 1 of the remaining 2, then the only entry without weight
+        WeightedSampler.pickDistinct(CUMULATIVE, TOTAL, new FixedRandom(2, 2, 1, 0), indices);
+        assertArrayEquals(new int[] {2, 3, 0, 1}, indices);
+    }
+
+    @Test
+    void pickDistinctPicksEntriesWithoutWeightLast() {
+        Random random = new Random(42);
+        for(int i = 0; i < 1000; i++) {
+            int[] indices = new int[4];
+            WeightedSampler.pickDistinct(CUMULATIVE, TOTAL, random, indices);
+            assertEquals(1, indices[3]);
+            assertEquals(0b1111, mask(indices));
+        }
+    }
+
+    @Test
+    void pickDistinctWithoutAnyWeight() {
+        Random random = new Random(3);
+        int[] firstCounts = new int[3];
+        for(int i = 0; i < 3000; i++) {
+            int[] indices = new int[3];
+            WeightedSampler.pickDistinct(new int[] {0, 0, 0}, 0, random, indices);
+            assertEquals(0b111, mask(indices));
+            firstCounts[indices[0]]++;
+        }
+        for(int count : firstCounts) {
+            assertTrue(count > 800, "every entry should be picked first about as often");
+        }
+    }
+
+    @Test
+    void pickDistinctFirstPickIsProportionalToWeight() {
+        Random random = new Random(11);
+        int samples = 40000;
+        int heavierFirst = 0;
+        for(int i = 0; i < samples; i++) {
+            int[] indices = new int[2];
+            // Weights 1 and 3
+            WeightedSampler.pickDistinct(new int[] {1, 4}, 4, random, indices);
+            assertEquals(0b11, mask(indices));
+            if(indices[0] == 1) {
+                heavierFirst++;
+            }
+        }
+        assertEquals(samples * 3 / 4, heavierFirst, samples * 0.01);
+    }
+
+    @Test
+    void pickDistinctFewerThanAllEntries() {
+        Random random = new Random(5);
+        int[] cumulative = new int[100];
+        for(int i = 0; i < cumulative.length; i++) {
+            cumulative[i] = (i + 1) * 10;
+        }
+        for(int i = 0; i < 100; i++) {
+            int[] indices = new int[30];
+            WeightedSampler.pickDistinct(cumulative, 1000, random, indices);
+            assertEquals(30, Arrays.stream(indices).distinct().count());
+        }
+    }
+
+    private static int mask(int[] indices) {
+        int mask = 0;
+        for(int index : indices) {
+            assertEquals(0, mask & (1 << index), "index " + index + " was picked twice");
+            mask |= 1 << index;
+        }
+        return mask;
+    }
+
+    // Returns the given values from nextInt, in order
+    static class FixedRandom extends Random {
+
+        private final int[] values;
+        private int next;
+
+        FixedRandom(int... values) {
+            this.values = values;
+        }
+
+        @Override
+        public int nextInt(int bound) {
+            int value = values[next++];
+            if(value >= bound) {
+                throw new IllegalStateException("Value " + value + " is out of bound " + bound);
+            }
+            return value;
+        }
+    }
+}
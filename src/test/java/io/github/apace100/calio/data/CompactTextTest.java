@@ -0,0 +1,93 @@
+package io.github.apace100.calio.data;
+
+import io.netty.buffer.Unpooled;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.text.LiteralText;
+import net.minecraft.text.MutableText;
+import net.minecraft.text.Style;
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactTextTest {
+
+    private static Text roundTrip(Text text) {
+        PacketByteBuf buffer = new PacketByteBuf(Unpooled.buffer());
+        CompactText.write(buffer, text);
+        // The first byte tells whether the binary encoding or the JSON fallback was used
+        assertEquals(1, buffer.getByte(buffer.readerIndex()), "Expected the binary encoding");
+        Text received = CompactText.read(buffer);
+        assertEquals(0, buffer.readableBytes());
+        return received;
+    }
+
+    // The styles the segments of the text are rendered with, after inheriting from their parents
+    private static List<Style> renderedStyles(Text text) {
+        List<Style> styles = new ArrayList<>();
+        text.visit((style, string) -> {
+            styles.add(style);
+            return Optional.empty();
+        }, Style.EMPTY);
+        return styles;
+    }
+
+    @Test
+    void unsetFormattingsAreInherited() {
+        MutableText parent = new LiteralText("parent").setStyle(Style.EMPTY.withBold(true).withItalic(true));
+        parent.append(new LiteralText("child"));
+        List<Style> styles = renderedStyles(roundTrip(parent));
+        assertEquals(2, styles.size());
+        assertTrue(styles.get(1).isBold());
+        assertTrue(styles.get(1).isItalic());
+    }
+
+    @Test
+    void disabledBoldAndItalicStayDisabled() {
+        MutableText parent = new LiteralText("parent").setStyle(Style.EMPTY.withBold(true).withItalic(true));
+        parent.append(new LiteralText("child").setStyle(Style.EMPTY.withBold(false).withItalic(false)));
+        List<Style> styles = renderedStyles(roundTrip(parent));
+        assertFalse(styles.get(1).isBold());
+        assertFalse(styles.get(1).isItalic());
+    }
+
+    @Test
+    void disabledUnderlineOverridesParent() {
+        Text text = Text.Serializer.fromJson("{\"text\":\"parent\",\"underlined\":true,\"strikethrough\":true,\"obfuscated\":true,"
+            + "\"extra\":[{\"text\":\"child\",\"underlined\":false,\"strikethrough\":false},{\"text\":\"inheriting\"}]}");
+        List<Style> styles = renderedStyles(roundTrip(text));
+        assertEquals(3, styles.size());
+        assertTrue(styles.get(0).isUnderlined());
+        assertFalse(styles.get(1).isUnderlined());
+        assertFalse(styles.get(1).isStrikethrough());
+        assertTrue(styles.get(1).isObfuscated());
+        assertTrue(styles.get(2).isUnderlined());
+        assertTrue(styles.get(2).isStrikethrough());
+    }
+
+    @Test
+    void disabledFormattingsAreKeptWithoutParent() {
+        Text text = Text.Serializer.fromJson("{\"text\":\"a\",\"underlined\":false,\"obfuscated\":false,\"bold\":false}");
+        Text received = roundTrip(text);
+        // A disabled formatting still overrides a parent the text is appended to later
+        Style inheritedFromParent = received.getStyle().withParent(Style.EMPTY.withFormatting(Formatting.UNDERLINE, Formatting.OBFUSCATED, Formatting.BOLD, Formatting.STRIKETHROUGH));
+        assertFalse(inheritedFromParent.isUnderlined());
+        assertFalse(inheritedFromParent.isObfuscated());
+        assertFalse(inheritedFromParent.isBold());
+        assertTrue(inheritedFromParent.isStrikethrough());
+        assertEquals(Text.Serializer.toJson(text), Text.Serializer.toJson(received));
+    }
+
+    @Test
+    void colorAndInsertion() {
+        Text text = new LiteralText("a").setStyle(Style.EMPTY.withColor(Formatting.RED).withInsertion("inserted"));
+        Text received = roundTrip(text);
+        assertEquals(text.getStyle(), received.getStyle());
+        assertEquals("inserted", received.getStyle().getInsertion());
+    }
+}
@@ -0,0 +1,84 @@
+package io.github.apace100.calio.data;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EnumDataTypeTest {
+
+    @SuppressWarnings("unused")
+    private enum Shape {
+        ROUND, SQUARE, square_ish, Square, TRIANGLE
+    }
+
+    private static final SerializableDataType<Shape> SHAPE = SerializableDataType.enumValue(Shape.class, additionalNames());
+
+    private static HashMap<String, Shape> additionalNames() {
+        HashMap<String, Shape> names = new HashMap<>();
+        names.put("circle", Shape.ROUND);
+        // Constant names and their other capitalizations take precedence over additional names
+        names.put("round", Shape.TRIANGLE);
+        names.put("TRIANGLE", Shape.SQUARE);
+        names.put("Round", Shape.TRIANGLE);
+        return names;
+    }
+
+    private static Shape read(String name) {
+        return SHAPE.read(new JsonPrimitive(name));
+    }
+
+    @Test
+    void exactConstantName() {
+        assertEquals(Shape.ROUND, read("ROUND"));
+        assertEquals(Shape.square_ish, read("square_ish"));
+        assertEquals(Shape.Square, read("Square"));
+        assertEquals(Shape.TRIANGLE, read("TRIANGLE"));
+    }
+
+    @Test
+    void upperCaseFormBeforeAdditionalNames() {
+        assertEquals(Shape.ROUND, read("round"));
+        assertEquals(Shape.ROUND, read("Round"));
+        assertEquals(Shape.SQUARE, read("square"));
+        assertEquals(Shape.SQUARE, read("sQuArE"));
+        assertEquals(Shape.TRIANGLE, read("triangle"));
+    }
+
+    @Test
+    void additionalNames() {
+        assertEquals(Shape.ROUND, read("circle"));
+    }
+
+    @Test
+    void unknownName() {
+        JsonSyntaxException e = assertThrows(JsonSyntaxException.class, () -> read("hexagon"));
+        assertEquals("Expected value to be a string of: ROUND, round, SQUARE, square, square_ish, square_ish, Square, square, TRIANGLE, triangle", e.getMessage());
+        // Upper case forms of names which are not constants don't exist either
+        assertThrows(JsonSyntaxException.class, () -> read("CIRCLE"));
+    }
+
+    @Test
+    void ordinals() {
+        assertEquals(Shape.ROUND, SHAPE.read(new JsonPrimitive(0)));
+        assertEquals(Shape.TRIANGLE, SHAPE.read(new JsonPrimitive(4)));
+        assertThrows(JsonSyntaxException.class, () -> SHAPE.read(new JsonPrimitive(5)));
+        assertThrows(JsonSyntaxException.class, () -> SHAPE.read(new JsonPrimitive(-1)));
+    }
+
+    @Test
+    void enumSetUsesTheSameLookup() {
+        SerializableDataType<EnumSet<Shape>> shapes = SerializableDataType.enumSet(Shape.class, SHAPE);
+        JsonArray array = new JsonArray();
+        array.add("circle");
+        array.add("square");
+        array.add("Square");
+        assertEquals(EnumSet.of(Shape.ROUND, Shape.SQUARE, Shape.Square), shapes.read(array));
+        assertEquals(EnumSet.of(Shape.TRIANGLE), shapes.read(new JsonPrimitive("triangle")));
+    }
+}
@@ -0,0 +1,52 @@
+package io.github.apace100.calio.data;
+
+import net.minecraft.util.Identifier;
+import net.minecraft.util.InvalidIdentifierException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdentifierParserTest {
+
+    @Test
+    void parsesNamespaceAndPath() {
+        assertEquals(new Identifier("calio", "test"), IdentifierParser.parse("calio:test", null, null));
+        assertEquals(new Identifier("minecraft", "stone"), IdentifierParser.parse("stone", null, null));
+    }
+
+    @Test
+    void sameStringGivesSameInstance() {
+        assertSame(IdentifierParser.parse("calio:same", null, null), IdentifierParser.parse("calio:same", null, null));
+    }
+
+    @Test
+    void rejectsEmptyPath() {
+        assertThrows(InvalidIdentifierException.class, () -> IdentifierParser.parse("calio:", null, null));
+        assertThrows(InvalidIdentifierException.class, () -> IdentifierParser.parse(":", null, null));
+        assertThrows(InvalidIdentifierException.class, () -> IdentifierParser.parse("calio::", null, null));
+    }
+
+    @Test
+    void rejectsSeveralColons() {
+        assertThrows(InvalidIdentifierException.class, () -> IdentifierParser.parse("calio:a:b", null, null));
+        assertThrows(InvalidIdentifierException.class, () -> IdentifierParser.parse("calio::b", null, null));
+    }
+
+    @Test
+    void acceptsWhatSplittingAcceptedBefore() {
+        assertEquals(new Identifier("minecraft", "stone"), IdentifierParser.parse(":stone", null, null));
+        assertEquals(new Identifier("calio", "test"), IdentifierParser.parse("calio:test:", null, null));
+    }
+
+    @Test
+    void replacesWildcards() {
+        assertEquals(new Identifier("origins", "powers/fly_a"), IdentifierParser.parse("*:*_a", "origins", "powers/fly"));
+        assertEquals(new Identifier("minecraft", "powers/fly_a"), IdentifierParser.parse("*_a", "origins", "powers/fly"));
+    }
+
+    @Test
+    void rejectsWildcardsOutsideOfData() {
+        assertThrows(InvalidIdentifierException.class, () -> IdentifierParser.parse("*:test", null, null));
+        assertThrows(InvalidIdentifierException.class, () -> IdentifierParser.parse("calio:*", null, null));
+    }
+}
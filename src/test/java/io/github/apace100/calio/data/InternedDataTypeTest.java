@@ -0,0 +1,66 @@
+package io.github.apace100.calio.data;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.util.Identifier;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InternedDataTypeTest {
+
+    // Creates a new instance on every read, as the identifier parser returns cached instances itself
+    private static final SerializableDataType<Identifier> IDENTIFIER = new SerializableDataType<>(Identifier.class,
+        PacketByteBuf::writeIdentifier,
+        PacketByteBuf::readIdentifier,
+        json -> new Identifier(IdentifierParser.parse(json.getAsString(), SerializableData.getCurrentNamespace(), SerializableData.getCurrentPath()).toString()))
+        .interned();
+
+    @Test
+    void identicalJsonInOneFileIsInterned() {
+        try(SerializableData.Scope scope = SerializableData.enterScope("calio", "powers/first")) {
+            assertSame(IDENTIFIER.read(new JsonPrimitive("*:*_a")), IDENTIFIER.read(new JsonPrimitive("*:*_a")));
+        }
+    }
+
+    @Test
+    void identicalWildcardJsonInDifferentFiles() {
+        JsonElement json = new JsonPrimitive("*:*_a");
+        Identifier first;
+        Identifier second;
+        try(SerializableData.Scope scope = SerializableData.enterScope("calio", "powers/first")) {
+            first = IDENTIFIER.read(json);
+        }
+        try(SerializableData.Scope scope = SerializableData.enterScope("origins", "powers/second")) {
+            second = IDENTIFIER.read(json);
+        }
+        assertEquals(new Identifier("calio", "powers/first_a"), first);
+        assertEquals(new Identifier("origins", "powers/second_a"), second);
+    }
+
+    @Test
+    void identicalJsonWithoutWildcardsIsSharedBetweenFiles() {
+        JsonElement json = new JsonPrimitive("calio:shared");
+        Identifier first;
+        Identifier second;
+        try(SerializableData.Scope scope = SerializableData.enterScope("calio", "powers/first")) {
+            first = IDENTIFIER.read(json);
+        }
+        try(SerializableData.Scope scope = SerializableData.enterScope("origins", "powers/second")) {
+            second = IDENTIFIER.read(new JsonPrimitive("calio:shared"));
+        }
+        assertSame(first, second);
+    }
+
+    @Test
+    void identicalJsonInAndOutsideOfAFile() {
+        JsonElement json = new JsonPrimitive("calio:plain");
+        Identifier inside;
+        try(SerializableData.Scope scope = SerializableData.enterScope("calio", "powers/first")) {
+            inside = IDENTIFIER.read(json);
+        }
+        assertEquals(inside, IDENTIFIER.read(json));
+        assertThrows(RuntimeException.class, () -> IDENTIFIER.read(new JsonPrimitive("*:*_b")));
+    }
+}
@@ -0,0 +1,161 @@
+package io.github.apace100.calio.data;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import net.minecraft.resource.DirectoryResourcePack;
+import net.minecraft.resource.ReloadableResourceManagerImpl;
+import net.minecraft.resource.ResourceManager;
+import net.minecraft.resource.ResourceType;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.profiler.DummyProfiler;
+import net.minecraft.util.profiler.Profiler;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MultiJsonDataLoaderTest {
+
+    private static final Identifier FIRST = new Identifier("test", "first");
+    private static final Identifier SECOND = new Identifier("test", "second");
+    private static final Identifier THIRD = new Identifier("test", "third");
+
+    @TempDir
+    Path root;
+
+    private Path packA;
+    private Path packB;
+    private ResourceManager resourceManager;
+    private TestLoader loader;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        packA = root.resolve("pack_a");
+        packB = root.resolve("pack_b");
+        write(packA, FIRST, "{\"value\": 1}");
+        write(packA, SECOND, "{\"value\": 2}");
+        write(packB, FIRST, "{\"value\": 3}");
+        ReloadableResourceManagerImpl manager = new ReloadableResourceManagerImpl(ResourceType.SERVER_DATA);
+        manager.addPack(new DirectoryResourcePack(packA.toFile()));
+        manager.addPack(new DirectoryResourcePack(packB.toFile()));
+        resourceManager = manager;
+        loader = new TestLoader();
+        loader.setIncremental(true);
+    }
+
+    @Test
+    void firstReloadAddsEverything() {
+        Map<Identifier, List<JsonElement>> prepared = prepare();
+        assertEquals(2, prepared.get(FIRST).size());
+        assertEquals(1, prepared.get(SECOND).size());
+        assertEquals(set(FIRST, SECOND), loader.getChanges().getAdded());
+        assertTrue(loader.getChanges().getChanged().isEmpty());
+        assertTrue(loader.getChanges().getRemoved().isEmpty());
+    }
+
+    @Test
+    void unchangedReloadReportsNothingAndReusesElements() {
+        JsonElement first = prepare().get(SECOND).get(0);
+        Map<Identifier, List<JsonElement>> prepared = prepare();
+        assertTrue(loader.getChanges().isEmpty());
+        assertSame(first, prepared.get(SECOND).get(0));
+    }
+
+    @Test
+    void reportsAddedChangedAndRemovedFiles() throws IOException {
+        prepare();
+        write(packA, SECOND, "{\"value\": 4}");
+        write(packB, THIRD, "{\"value\": 5}");
+        Files.delete(file(packA, FIRST));
+        Files.delete(file(packB, FIRST));
+        Map<Identifier, List<JsonElement>> prepared = prepare();
+        MultiJsonDataLoader.Changes changes = loader.getChanges();
+        assertEquals(set(THIRD), changes.getAdded());
+        assertEquals(set(SECOND), changes.getChanged());
+        assertEquals(set(FIRST), changes.getRemoved());
+        assertTrue(changes.isAffected(FIRST));
+        assertFalse(prepared.containsKey(FIRST));
+        assertEquals(4, prepared.get(SECOND).get(0).getAsJsonObject().get("value").getAsInt());
+    }
+
+    @Test
+    void fileInAnotherPackChangesTheIdentifier() throws IOException {
+        prepare();
+        write(packB, SECOND, "{\"value\": 2}");
+        prepare();
+        assertEquals(set(SECOND), loader.getChanges().getChanged());
+    }
+
+    @Test
+    void swappedContentsAreChanges() throws IOException {
+        write(packB, SECOND, "{\"value\": 6}");
+        prepare();
+        // Both files of FIRST are swapped: the same hashes in a different order
+        write(packA, FIRST, "{\"value\": 3}");
+        write(packB, FIRST, "{\"value\": 1}");
+        prepare();
+        assertEquals(set(FIRST), loader.getChanges().getChanged());
+    }
+
+    @Test
+    void revertedContentIsAChangeAgain() throws IOException {
+        prepare();
+        write(packA, SECOND, "{\"value\": 7}");
+        prepare();
+        write(packA, SECOND, "{\"value\": 2}");
+        Map<Identifier, List<JsonElement>> prepared = prepare();
+        assertEquals(set(SECOND), loader.getChanges().getChanged());
+        assertEquals(2, prepared.get(SECOND).get(0).getAsJsonObject().get("value").getAsInt());
+    }
+
+    @Test
+    void parallelParsingPreparesTheSameData() {
+        Map<Identifier, List<JsonElement>> sequential = prepare();
+        TestLoader parallel = new TestLoader();
+        parallel.setParallelism(4);
+        assertEquals(sequential, parallel.prepare(resourceManager, DummyProfiler.INSTANCE));
+    }
+
+    private Map<Identifier, List<JsonElement>> prepare() {
+        return loader.prepare(resourceManager, DummyProfiler.INSTANCE);
+    }
+
+    private static Path file(Path pack, Identifier id) {
+        return pack.resolve("data").resolve(id.getNamespace()).resolve("things").resolve(id.getPath() + ".json");
+    }
+
+    private static void write(Path pack, Identifier id, String json) throws IOException {
+        Path file = file(pack, id);
+        Files.createDirectories(file.getParent());
+        Files.write(file, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Set<Identifier> set(Identifier... ids) {
+        Set<Identifier> set = new HashSet<>();
+        Collections.addAll(set, ids);
+        return set;
+    }
+
+    private static class TestLoader extends MultiJsonDataLoader {
+
+        private TestLoader() {
+            super(new Gson(), "things");
+        }
+
+        @Override
+        protected void apply(Map<Identifier, List<JsonElement>> prepared, ResourceManager manager, Profiler profiler) {
+
+        }
+    }
+}
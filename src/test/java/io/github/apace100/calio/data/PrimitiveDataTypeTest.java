@@ -0,0 +1,61 @@
+package io.github.apace100.calio.data;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrimitiveDataTypeTest {
+
+    private static final PrimitiveDataType.IntType INT = new PrimitiveDataType.IntType();
+
+    private static JsonElement parseTree(String json) {
+        return new JsonParser().parse("[" + json + "]").getAsJsonArray().get(0);
+    }
+
+    private static int readStream(String json) throws IOException {
+        JsonReader reader = new JsonReader(new StringReader("[" + json + "]"));
+        reader.beginArray();
+        int value = INT.readInt(reader);
+        reader.endArray();
+        return value;
+    }
+
+    private static void assertSameInt(String json) throws IOException {
+        assertEquals(INT.readInt(parseTree(json)), readStream(json), json);
+    }
+
+    private static void assertBothReject(String json) {
+        assertThrows(NumberFormatException.class, () -> INT.readInt(parseTree(json)), json);
+        assertThrows(NumberFormatException.class, () -> readStream(json), json);
+    }
+
+    @Test
+    void wholeNumbers() throws IOException {
+        assertSameInt("42");
+        assertSameInt("-7");
+        assertSameInt("\"42\"");
+        assertSameInt("1e2");
+    }
+
+    @Test
+    void unquotedNumbersAreTruncated() throws IOException {
+        assertSameInt("1.5");
+        assertSameInt("-1.5");
+        assertSameInt("3000000000");
+        assertEquals(1, readStream("1.5"));
+    }
+
+    @Test
+    void quotedNumbersHaveToBeWhole() {
+        assertBothReject("\"1.5\"");
+        assertBothReject("\"1.0\"");
+        assertBothReject("\"3000000000\"");
+        assertBothReject("\"one\"");
+    }
+}